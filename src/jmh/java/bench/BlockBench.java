@@ -0,0 +1,94 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attacks, repairs and shields on a single block, alone and with players
+ * fighting over the same block
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockBench {
+    /**
+     * enough hitpoints that the block outlives an iteration
+     */
+    private static final int HP = Integer.MAX_VALUE / 2;
+
+    /**
+     * A block shared by every thread of a group
+     */
+    @State(Scope.Group)
+    public static class Shared {
+        Object block;
+        Object defender;
+
+        @Setup(Level.Iteration)
+        public void setup() throws Throwable {
+            block = (Object) Core.NEW_BLOCK.invokeExact(1, 0, 0, HP);
+            defender = (Object) Core.NEW_DEFENDER.invokeExact("defender", 0, 0);
+        }
+    }
+
+    /**
+     * A block of each thread
+     */
+    @State(Scope.Thread)
+    public static class Own {
+        Object block;
+
+        @Setup(Level.Iteration)
+        public void setup() throws Throwable {
+            block = (Object) Core.NEW_BLOCK.invokeExact(1, 0, 0, HP);
+        }
+    }
+
+    @Benchmark
+    public int attack(Own s) throws Throwable {
+        return (int) Core.ATTACK.invokeExact(s.block, 1);
+    }
+
+    @Benchmark
+    @Group("attackers")
+    @GroupThreads(4)
+    public int contendedAttack(Shared s) throws Throwable {
+        return (int) Core.ATTACK.invokeExact(s.block, 1);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public int mixedAttack(Shared s) throws Throwable {
+        return (int) Core.ATTACK.invokeExact(s.block, 1);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int mixedRepair(Shared s) throws Throwable {
+        return (int) Core.REPAIR.invokeExact(s.block, 1);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int mixedShield(Shared s) throws Throwable {
+        return (int) Core.SHIELD.invokeExact(s.block, s.defender, 5);
+    }
+}
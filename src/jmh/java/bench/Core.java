@@ -0,0 +1,162 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Handles on the game classes for the benchmarks
+ * <p>
+ * The game lives in the default package, which JMH does not accept benchmarks
+ * in and which cannot be imported from. The handles are static finals, so the
+ * JIT inlines calls through them just like direct calls. Game objects are typed
+ * as Object, call them with invokeExact and the types given here.
+ */
+final class Core {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * (int size, int blockHp, boolean list) Object
+     */
+    static final MethodHandle NEW_CUBE = constructor("Cube", int.class, int.class, boolean.class);
+    /**
+     * (Object cube) int
+     */
+    static final MethodHandle CUBE_SIZE = method("Cube", "size");
+    /**
+     * (Object cube) int
+     */
+    static final MethodHandle LEVELS = method("Cube", "levels");
+    /**
+     * (Object cube, int level) Object[]
+     */
+    static final MethodHandle LEVEL = method("Cube", "level", int.class);
+    /**
+     * (Object cube, int id) Object
+     */
+    static final MethodHandle GET_BLOCK = method("Cube", "getBlock", int.class);
+    /**
+     * (Object cube) Object
+     */
+    static final MethodHandle CURRENT_LAYER = getter("Cube", "currentLayer");
+    /**
+     * (Object layer) String
+     */
+    static final MethodHandle TO_STRING_HP = method("Cube$Layer", "toStringHp");
+
+    /**
+     * (int x, int y, int z, int hp) Object
+     */
+    static final MethodHandle NEW_BLOCK = constructor("GameBlock", int.class, int.class, int.class, int.class);
+    /**
+     * (Object block) int
+     */
+    static final MethodHandle BLOCK_ID = method("GameBlock", "id");
+    /**
+     * (Object block, int dmg) int
+     */
+    static final MethodHandle ATTACK = method("GameBlock", "attack", int.class);
+    /**
+     * (Object block, int rep) int
+     */
+    static final MethodHandle REPAIR = method("GameBlock", "repair", int.class);
+    /**
+     * (Object block, Object player, int sp) int
+     */
+    static final MethodHandle SHIELD = method("GameBlock", "shield", type("Player"), int.class);
+
+    /**
+     * (String name, int score, int credits) Object
+     */
+    static final MethodHandle NEW_DEFENDER = constructor("Defender", String.class, int.class, int.class);
+    /**
+     * (Object player, int credits) void
+     */
+    static final MethodHandle GAIN_CREDITS = method("Player", "gainCredits", int.class);
+
+    /**
+     * (String name, Object cube, long timeLimitNs) Object
+     */
+    static final MethodHandle NEW_STATE = constructor("LocalState", String.class, type("Cube"), long.class);
+    /**
+     * (Object state) Object, the cube
+     */
+    static final MethodHandle STATE_CUBE = method("LocalState", "cube");
+    /**
+     * (Object state) Collection
+     */
+    static final MethodHandle PLAYERS = method("LocalState", "players");
+    /**
+     * (Object state, String username, int role, int score, int credits, int primary, int secondary, int items) boolean
+     */
+    static final MethodHandle REGISTER = method("LocalState", "register", String.class, int.class, int.class,
+            int.class, int.class, int.class, int.class);
+    /**
+     * (Object state, String request) String
+     */
+    static final MethodHandle PARSE_REQUEST = method("LocalState", "parseRequest", String.class);
+    /**
+     * (Object state) String
+     */
+    static final MethodHandle PRINT_LEADERBOARDS = method("LocalState", "printLeaderBoards");
+
+    private Core() {
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor(String type, Class<?>... params) {
+        try {
+            Constructor<?> c = type(type).getDeclaredConstructor(params);
+            c.setAccessible(true);
+            return erase(LOOKUP.unreflectConstructor(c));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle method(String type, String name, Class<?>... params) {
+        try {
+            Method m = type(type).getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            return erase(LOOKUP.unreflect(m));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle getter(String type, String name) {
+        try {
+            Field f = type(type).getDeclaredField(name);
+            f.setAccessible(true);
+            return erase(LOOKUP.unreflectGetter(f));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Replace the game classes in the type of a handle with Object, and arrays of them with Object[]
+     */
+    private static MethodHandle erase(MethodHandle h) {
+        MethodType t = h.type();
+        for (int i = 0; i < t.parameterCount(); i++) {
+            t = t.changeParameterType(i, erase(t.parameterType(i)));
+        }
+        return h.asType(t.changeReturnType(erase(t.returnType())));
+    }
+
+    private static Class<?> erase(Class<?> c) {
+        if (c.isPrimitive() || c.getName().startsWith("java.")) return c;
+        return c.isArray() ? Object[].class : Object.class;
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up blocks by id and printing the layer under attack
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CubeAccessBench {
+    /**
+     * ids looked up in turn, a power of two
+     */
+    private static final int IDS = 1 << 16;
+
+    @Param({"11", "51", "101"})
+    public int size;
+
+    private Object cube;
+    private Object layer;
+    private int[] ids;
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        cube = (Object) Core.NEW_CUBE.invokeExact(size, 100, false);
+        layer = (Object) Core.CURRENT_LAYER.invokeExact(cube);
+        ArrayList<Integer> all = new ArrayList<>();
+        int levels = (int) Core.LEVELS.invokeExact(cube);
+        for (int level = 1; level <= levels; level++) {
+            for (Object block : (Object[]) Core.LEVEL.invokeExact(cube, level)) {
+                if (block != null) all.add((int) Core.BLOCK_ID.invokeExact(block));
+            }
+        }
+        Random r = new Random(0);
+        ids = new int[IDS];
+        for (int i = 0; i < IDS; i++) {
+            ids[i] = all.get(r.nextInt(all.size()));
+        }
+    }
+
+    @Benchmark
+    public Object getBlock() throws Throwable {
+        int id = ids[next++ & (IDS - 1)];
+        return (Object) Core.GET_BLOCK.invokeExact(cube, id);
+    }
+
+    @Benchmark
+    public String layerToStringHp() throws Throwable {
+        return (String) Core.TO_STRING_HP.invokeExact(layer);
+    }
+}
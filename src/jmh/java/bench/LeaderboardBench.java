@@ -0,0 +1,59 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Printing the leaderboard of a crowded game, as it is and right after
+ * a player scored
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LeaderboardBench {
+    @Param({"10000"})
+    public int players;
+
+    private Object state;
+    private Object[] registered;
+    private Random random = new Random(0);
+
+    @Setup
+    public void setup() throws Throwable {
+        Object cube = (Object) Core.NEW_CUBE.invokeExact(11, 100, false);
+        state = (Object) Core.NEW_STATE.invokeExact("bench", cube, Long.MAX_VALUE / 2);
+        for (int i = 0; i < players; i++) {
+            boolean ok = (boolean) Core.REGISTER.invokeExact(state, "p" + i, i & 1, random.nextInt(100000), 0, 1, 1, 0);
+            if (!ok) throw new IllegalStateException("Could not register p" + i);
+        }
+        registered = ((Collection<?>) Core.PLAYERS.invokeExact(state)).toArray();
+    }
+
+    @Benchmark
+    public String print() throws Throwable {
+        return (String) Core.PRINT_LEADERBOARDS.invokeExact(state);
+    }
+
+    @Benchmark
+    public String scoreThenPrint() throws Throwable {
+        Object p = registered[random.nextInt(registered.length)];
+        Core.GAIN_CREDITS.invokeExact(p, 1);
+        return (String) Core.PRINT_LEADERBOARDS.invokeExact(state);
+    }
+}
@@ -0,0 +1,56 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registering new players through {@link Core#PARSE_REQUEST}, the time is per player
+ * <p>
+ * A REGISTER request logs a line to stderr for its player, which would be most of
+ * what it measures, so the players come in REGISTERBATCH requests of
+ * {@link RegisterBench#BATCH} that log a single line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegisterBench {
+    static final int BATCH = 100;
+
+    private Object state;
+    private int registered;
+
+    /**
+     * A new game every iteration, so that the players do not pile up over the run
+     */
+    @Setup(Level.Iteration)
+    public void setup() throws Throwable {
+        Object cube = (Object) Core.NEW_CUBE.invokeExact(11, 100, false);
+        state = (Object) Core.NEW_STATE.invokeExact("bench", cube, Long.MAX_VALUE / 2);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public String registerBatch() throws Throwable {
+        // USERNAME-ROLE-PRIMARY-SECONDARY-ITEMS for every player
+        StringBuilder r = new StringBuilder("REGISTERBATCH");
+        for (int i = 0; i < BATCH; i++) {
+            r.append("-p").append(registered++).append('-').append(i & 1).append("-1-1-0");
+        }
+        return (String) Core.PARSE_REQUEST.invokeExact(state, r.toString());
+    }
+}
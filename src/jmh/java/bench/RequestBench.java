@@ -0,0 +1,92 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One socket request of every kind through {@link Core#PARSE_REQUEST}
+ * <p>
+ * The players are fast enough to never wait for a cooldown and have credits and
+ * items for the whole run, on blocks that outlive it. Repairs of the undamaged
+ * block, shields of the shielded block and boosts, granted once a second, are
+ * mostly turned away and measure the cost of saying no.
+ * <p>
+ * Registration is measured by {@link RegisterBench}, a REGISTER logs a line to
+ * stderr that would be most of its cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBench {
+    private static final int PLENTY = Integer.MAX_VALUE / 2;
+
+    @Param({"LOGIN", "ATTACK", "REPAIR", "BOMB", "SHIELD", "BUYBOMB", "BUYSHIELD",
+            "LVLATK", "LVLREP", "LVLSPD", "BOOST", "GETTARGETS", "GETTARGETS-0", "GETDELTA-0",
+            "GETEND", "GETPLAYER"})
+    public String command;
+
+    private Object state;
+    private String request;
+    private int logins;
+
+    @Setup
+    public void setup() throws Throwable {
+        Object cube = (Object) Core.NEW_CUBE.invokeExact(11, PLENTY, false);
+        state = (Object) Core.NEW_STATE.invokeExact("bench", cube, Long.MAX_VALUE / 2);
+        boolean a = (boolean) Core.REGISTER.invokeExact(state, "a", 1, 0, PLENTY, 1, 10, PLENTY);
+        boolean d = (boolean) Core.REGISTER.invokeExact(state, "d", 0, 0, PLENTY, 1, 10, PLENTY);
+        if (!a || !d) throw new IllegalStateException("Could not register the players");
+        // a block of the layer under attack, the reply is TARGETS- followed by X_Y_Z:HP lines
+        String targets = (String) Core.PARSE_REQUEST.invokeExact(state, "GETTARGETS");
+        String block = targets.substring("TARGETS-".length()).split("\n")[0].split(":")[0];
+        switch (command) {
+            case "ATTACK":
+            case "BOMB":
+            case "SHIELD":
+                request = command + "-" + (command.equals("SHIELD") ? "d" : "a") + "-" + block;
+                break;
+            case "REPAIR":
+                request = command + "-d-" + block;
+                break;
+            case "BUYBOMB":
+            case "LVLATK":
+            case "GETPLAYER":
+                request = command + "-a";
+                break;
+            case "BUYSHIELD":
+            case "LVLREP":
+                request = command + "-d";
+                break;
+            case "LVLSPD":
+            case "BOOST":
+                request = command + "-a-1";
+                break;
+            default:
+                request = command;
+        }
+    }
+
+    @Benchmark
+    public String parseRequest() throws Throwable {
+        String r = request;
+        if (command.equals("LOGIN")) {
+            // the next login of the same player succeeds again
+            r = (logins++ & 1) == 0 ? "LOGIN-a" : "LOGOUT-a";
+        }
+        return (String) Core.PARSE_REQUEST.invokeExact(state, r);
+    }
+}
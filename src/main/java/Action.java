@@ -0,0 +1,45 @@
+import java.io.Serializable;
+
+/**
+ * A primary ability request of one player, sent together with others
+ * in a single call, see {@link RemoteState#requestPrimaryBatch(java.util.List)}
+ */
+public class Action implements Serializable {
+    final String user;
+    final int role;
+    final String block;
+
+    /**
+     * Constructor
+     *
+     * @param user  the player's name
+     * @param role  the player's role
+     * @param block the target block formatted as X_Y_Z
+     */
+    public Action(String user, int role, String block) {
+        this.user = user;
+        this.role = role;
+        this.block = block;
+    }
+
+    /**
+     * @return the player's name
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * @return the player's role
+     */
+    public int getRole() {
+        return role;
+    }
+
+    /**
+     * @return the target block formatted as X_Y_Z
+     */
+    public String getBlock() {
+        return block;
+    }
+}
@@ -0,0 +1,404 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+import java.util.HashMap;
+
+/**
+ * An append-only log of every change made to the game since the last snapshot,
+ * replayed on top of the snapshot after a crash
+ * <p>
+ * The changes are logged where they are made, as the hitpoints and shield points
+ * taken from or given to a block and the score and credits a player gained or
+ * spent, rather than as the commands that caused them. Cooldowns and the blocks
+ * hit by a bomb depend on timing and chance, so the commands would not do the
+ * same thing twice, while the changes add up to the same game in any order.
+ * The stats of a player are logged whole instead, and the last record wins.
+ * <p>
+ * Records are appended to a buffer in memory, a background thread writes it and
+ * forces it to disk every {@link ActionLog#FLUSH_INTERVAL} milliseconds, so the
+ * players never wait for the disk and a crash loses at most that much play.
+ * <pre>
+ * int MAGIC, int VERSION, long id
+ * records: short length of the rest, byte type, fields
+ * REGISTER byte role, int score, int credits, int[5] stats, name
+ * BLOCK    int block, int hitpoints, int shield points
+ * SHIELD   int block, int shield points, name
+ * CREDITS  int score, int credits, name
+ * STATS    int[5] stats, name
+ * </pre>
+ * Names are a short length followed by at most {@link LocalState#MAX_NAME}
+ * UTF-8 bytes, positions in the log are offsets in the file.
+ */
+class ActionLog implements Closeable {
+    static final int MAGIC = 0x57414C31;
+    static final int VERSION = 1;
+    static final int HEADER = 16;
+    /**
+     * milliseconds between two writes of the log
+     */
+    static final long FLUSH_INTERVAL = 10;
+
+    static final byte REGISTER = 1;
+    static final byte BLOCK = 2;
+    static final byte SHIELD = 3;
+    static final byte CREDITS = 4;
+    static final byte STATS = 5;
+
+    private final long id;
+    private final FileChannel channel;
+    private final Thread flusher;
+    private final Object lock = new Object();
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    /**
+     * position after the last record appended
+     */
+    private long position;
+    private volatile boolean closed;
+
+    private ActionLog(FileChannel channel, long id, long position) {
+        this.channel = channel;
+        this.id = id;
+        this.position = position;
+        this.flusher = new Thread(this::run, "action-log");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * @param game the name of a game
+     * @return the file the changes to the game are logged to
+     */
+    static Path path(String game) {
+        return Paths.get("/tmp/" + game + ".wal");
+    }
+
+    /**
+     * @param game the name of a game
+     * @return the snapshot a new log of the game starts from, until a later one is saved
+     */
+    static Path base(String game) {
+        return Paths.get("/tmp/" + game + ".base.snap");
+    }
+
+    /**
+     * @param path the file of a log
+     * @return the id of the log, 0 if there is no log in the file
+     * @throws IOException if the file cannot be read
+     */
+    static long id(Path path) throws IOException {
+        if (!Files.exists(path)) return 0;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining() && ch.read(header) >= 0) {
+                // reading the header
+            }
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION) return 0;
+            return header.getLong();
+        }
+    }
+
+    /**
+     * Start a new log, replacing the file
+     *
+     * @param path the file of the log
+     * @param id   identifies the log in the snapshots taken while it is written
+     * @return the log
+     * @throws IOException if the file cannot be written
+     */
+    static ActionLog create(Path path, long id) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putLong(id).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        return new ActionLog(channel, id, HEADER);
+    }
+
+    /**
+     * @return the id of the log
+     */
+    long id() {
+        return id;
+    }
+
+    /**
+     * @return the position after the last record appended
+     */
+    long position() {
+        synchronized (lock) {
+            return position;
+        }
+    }
+
+    /**
+     * Log a new player
+     *
+     * @param p the player
+     * @throws RemoteException if rmi fails
+     */
+    void register(Player p) throws RemoteException {
+        byte[] name = p.nameBytes();
+        synchronized (lock) {
+            int[] stats = p.stats();
+            ByteBuffer b = record(REGISTER, 1 + 4 + 4 + 4 * stats.length + 2 + name.length);
+            b.put((byte) (p instanceof Attacker ? 1 : 0)).putInt(p.getScore()).putInt(p.getCredits());
+            for (int stat : stats) {
+                b.putInt(stat);
+            }
+            b.putShort((short) name.length).put(name);
+        }
+    }
+
+    /**
+     * Log a change to the hitpoints or the shield points of a block
+     *
+     * @param block  the id of the block
+     * @param hp     the hitpoints given to the block, negative if taken
+     * @param points the shield points given to the block, negative if taken
+     */
+    void block(int block, int hp, int points) {
+        synchronized (lock) {
+            record(BLOCK, 12).putInt(block).putInt(hp).putInt(points);
+        }
+    }
+
+    /**
+     * Log a shield placed on a block
+     *
+     * @param block    the id of the block
+     * @param points   the shield points placed
+     * @param shielder the player credited for them
+     */
+    void shield(int block, int points, Player shielder) {
+        byte[] name = shielder.nameBytes();
+        synchronized (lock) {
+            record(SHIELD, 8 + 2 + name.length).putInt(block).putInt(points).putShort((short) name.length).put(name);
+        }
+    }
+
+    /**
+     * Log a change to the score and credits of a player
+     *
+     * @param p       the player
+     * @param score   the score gained
+     * @param credits the credits gained, negative if spent
+     */
+    void credits(Player p, int score, int credits) {
+        byte[] name = p.nameBytes();
+        synchronized (lock) {
+            record(CREDITS, 8 + 2 + name.length).putInt(score).putInt(credits).putShort((short) name.length).put(name);
+        }
+    }
+
+    /**
+     * Log the stats of a player after they changed. They are read with the lock
+     * held, so of two changes made at once the one logged last holds both.
+     *
+     * @param p the player
+     */
+    void stats(Player p) {
+        byte[] name = p.nameBytes();
+        synchronized (lock) {
+            int[] stats = p.stats();
+            ByteBuffer b = record(STATS, 4 * stats.length + 2 + name.length);
+            for (int stat : stats) {
+                b.putInt(stat);
+            }
+            b.putShort((short) name.length).put(name);
+        }
+    }
+
+    /**
+     * Start a record, called with the lock held
+     *
+     * @param type   the type of the record
+     * @param length the length of its fields
+     * @return the buffer to put the fields in
+     */
+    private ByteBuffer record(byte type, int length) {
+        if (buffer.remaining() < 3 + length) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + 3 + length));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        position += 3 + length;
+        return buffer.putShort((short) (1 + length)).put(type);
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL);
+                flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Could not write the action log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write the records appended so far and force them to disk, the players keep
+     * appending to the other buffer meanwhile
+     *
+     * @throws IOException if the log cannot be written
+     */
+    synchronized void flush() throws IOException {
+        ByteBuffer full;
+        synchronized (lock) {
+            if (buffer.position() == 0) return;
+            full = buffer;
+            buffer = spare;
+        }
+        full.flip();
+        while (full.hasRemaining()) {
+            channel.write(full);
+        }
+        channel.force(false);
+        full.clear();
+        spare = full;
+    }
+
+    /**
+     * Write what is left and close the file
+     *
+     * @throws IOException if the log cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // not interrupted, that would close the channel in the middle of a write
+        try {
+            flusher.join(FLUSH_INTERVAL * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Apply the changes logged after a snapshot was taken, up to the last complete record.
+     * The changes are added up before they are applied, so their order does not matter,
+     * but for the stats of a player that are taken from its last record.
+     *
+     * @param path  the file of the log
+     * @param id    the id of the log the snapshot was taken with
+     * @param from  the position of the log when the snapshot was taken
+     * @param state the game loaded from the snapshot
+     * @return the number of records applied, -1 if the log is not the one of the snapshot
+     * @throws IOException if the log cannot be read
+     */
+    static int replay(Path path, long id, long from, LocalState state) throws IOException {
+        if (!Files.exists(path)) return -1;
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER) return -1;
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getLong() != id) return -1;
+        if (from < HEADER || from > buf.limit()) return 0;
+        buf.position((int) from);
+
+        Cube cube = state.cube();
+        HashMap<Integer, int[]> blocks = new HashMap<>();
+        HashMap<Integer, Player> shielders = new HashMap<>();
+        HashMap<Player, int[]> credits = new HashMap<>();
+        HashMap<Player, int[]> stats = new HashMap<>();
+        int records = 0;
+        while (buf.remaining() >= 2) {
+            int length = buf.getShort() & 0xFFFF;
+            // a record cut short by the crash
+            if (length == 0 || buf.remaining() < length) break;
+            int end = buf.position() + length;
+            byte type = buf.get();
+            switch (type) {
+                case REGISTER: {
+                    int role = buf.get();
+                    int score = buf.getInt();
+                    int cr = buf.getInt();
+                    int[] s = new int[5];
+                    for (int i = 0; i < s.length; i++) {
+                        s[i] = buf.getInt();
+                    }
+                    state.restore(name(buf), role, score, cr, s);
+                    break;
+                }
+                case BLOCK: {
+                    int block = buf.getInt();
+                    int[] change = blocks.computeIfAbsent(block, b -> new int[2]);
+                    change[0] += buf.getInt();
+                    change[1] += buf.getInt();
+                    break;
+                }
+                case SHIELD: {
+                    int block = buf.getInt();
+                    blocks.computeIfAbsent(block, b -> new int[2])[1] += buf.getInt();
+                    Player p = state.getPlayer(name(buf));
+                    if (p != null) shielders.put(block, p);
+                    break;
+                }
+                case CREDITS: {
+                    int score = buf.getInt();
+                    int cr = buf.getInt();
+                    Player p = state.getPlayer(name(buf));
+                    if (p == null) break;
+                    int[] change = credits.computeIfAbsent(p, k -> new int[2]);
+                    change[0] += score;
+                    change[1] += cr;
+                    break;
+                }
+                case STATS: {
+                    int[] s = new int[5];
+                    for (int i = 0; i < s.length; i++) {
+                        s[i] = buf.getInt();
+                    }
+                    Player p = state.getPlayer(name(buf));
+                    if (p != null) stats.put(p, s);
+                    break;
+                }
+                default:
+                    System.err.println("Unknown record " + type + " in the action log");
+            }
+            buf.position(end);
+            records++;
+        }
+
+        for (HashMap.Entry<Integer, int[]> e : blocks.entrySet()) {
+            GameBlock b = cube.getBlock(e.getKey());
+            if (b == null) continue;
+            Player shielder = shielders.get(e.getKey());
+            if (shielder == null) shielder = b.shielder();
+            b.restore(b.getHp() + e.getValue()[0], b.shieldPoints() + e.getValue()[1], shielder);
+        }
+        for (HashMap.Entry<Player, int[]> e : credits.entrySet()) {
+            e.getKey().replay(e.getValue()[0], e.getValue()[1]);
+        }
+        for (HashMap.Entry<Player, int[]> e : stats.entrySet()) {
+            e.getKey().setStats(e.getValue());
+        }
+        cube.restored();
+        return records;
+    }
+
+    private static String name(ByteBuffer buf) {
+        byte[] name = new byte[buf.getShort() & 0xFFFF];
+        buf.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel that runs actions once their time has come
+ * <p>
+ * The wheel has a slot per {@link ActionScheduler#TICK}, a timer goes in
+ * the slot of its deadline and is run when the wheel comes around to it,
+ * or left there for another turn if its deadline is further away. Adding
+ * and running a timer costs the same however many are waiting, which
+ * suits the many short cooldowns of a crowded game. Timers are added from
+ * any thread and run on the wheel's own thread, never early and at most
+ * a tick late. The thread sleeps past the empty slots, and for good while
+ * no timer is waiting.
+ */
+class ActionScheduler extends Thread {
+    /**
+     * nanoseconds per slot
+     */
+    static final long TICK = 1_000_000L;
+    private static final int SLOTS = 1024;
+
+    private final ArrayList<ArrayDeque<Timer>> wheel = new ArrayList<>(SLOTS);
+    private final ConcurrentLinkedQueue<Timer> added = new ConcurrentLinkedQueue<>();
+    /**
+     * timers in the wheel, only touched by the wheel's thread
+     */
+    private int queued;
+    /**
+     * the tick the sleeping wheel wakes up at, a timer due before it wakes it sooner
+     */
+    private volatile long wake = Long.MIN_VALUE;
+    private volatile boolean running = true;
+
+    private static class Timer {
+        /**
+         * the first tick that starts after the deadline
+         */
+        final long due;
+        final Runnable task;
+
+        Timer(long at, Runnable task) {
+            this.due = -Math.floorDiv(-at, TICK);
+            this.task = task;
+        }
+    }
+
+    ActionScheduler() {
+        super("action-scheduler");
+        setDaemon(true);
+        for (int i = 0; i < SLOTS; i++) {
+            wheel.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Run a task once a time has come, can be called from any thread
+     *
+     * @param at   when to run the task, from {@link System#nanoTime()}
+     * @param task the task
+     */
+    void schedule(long at, Runnable task) {
+        Timer t = new Timer(at, task);
+        added.add(t);
+        if (t.due < wake) LockSupport.unpark(this);
+    }
+
+    /**
+     * Stop the wheel, timers that did not run yet are dropped
+     */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+        long tick = Math.floorDiv(System.nanoTime(), TICK);
+        while (running) {
+            Timer t;
+            while ((t = added.poll()) != null) {
+                // a deadline already passed goes in the slot about to run
+                slot(Math.max(t.due, tick)).add(t);
+                queued++;
+            }
+            long now = System.nanoTime();
+            long next = nextBusy(tick);
+            if (next > Math.floorDiv(now, TICK)) {
+                // the slots up to now are empty, sleep until the next busy one or a timer is added
+                tick = Math.floorDiv(now, TICK) + 1;
+                wake = next;
+                if (added.isEmpty()) {
+                    if (next == Long.MAX_VALUE) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, next * TICK - now);
+                    }
+                }
+                wake = Long.MIN_VALUE;
+                continue;
+            }
+            tick = next;
+            Iterator<Timer> it = slot(tick).iterator();
+            while (it.hasNext()) {
+                t = it.next();
+                if (t.due > tick) continue;
+                it.remove();
+                queued--;
+                try {
+                    t.task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Scheduled action failed");
+                    e.printStackTrace();
+                }
+            }
+            tick++;
+        }
+    }
+
+    private ArrayDeque<Timer> slot(long tick) {
+        return wheel.get((int) (tick & (SLOTS - 1)));
+    }
+
+    /**
+     * @param tick the first tick to look at
+     * @return the first tick from it whose slot holds a timer, which may be due
+     * in a later turn, or {@link Long#MAX_VALUE} if the wheel is empty
+     */
+    private long nextBusy(long tick) {
+        if (queued == 0) return Long.MAX_VALUE;
+        for (long t = tick; t < tick + SLOTS; t++) {
+            if (!slot(t).isEmpty()) return t;
+        }
+        return Long.MAX_VALUE;
+    }
+}
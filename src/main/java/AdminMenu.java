@@ -1,8 +1,12 @@
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.nio.file.Paths;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
  * Menu that presents some additional operation to an admin
@@ -12,10 +16,36 @@ import java.util.Scanner;
  * STATUS print current layer blocks with their hitpoints<br>
  * SET alter the stats of players<br>
  * SAVE SAVEFILE export the current state as
- * a serialized object<br>
+ * a snapshot, see {@link GameSnapshot}<br>
+ * AUTOSAVE SAVEFILE SECONDS export a snapshot every few seconds
+ * while the game goes on, AUTOSAVE OFF to stop<br>
+ * QUEUE ON apply primary actions that come in before the player's cooldown
+ * is over once it is, instead of rejecting them, QUEUE OFF to reject them again<br>
  */
 public class AdminMenu extends Thread {
     private final LocalState state;
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "autosave");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> autosave;
+
+    /**
+     * Save a snapshot of the game
+     *
+     * @param name the name of the file in /tmp, without extension
+     */
+    private void save(String name) {
+        try {
+            long start = System.nanoTime();
+            GameSnapshot.save(state, Paths.get("/tmp/" + name + ".snap"));
+            System.out.printf("Snapshot saved in /tmp/%s.snap in %.3f seconds%n", name,
+                    (System.nanoTime() - start) / 1e9);
+        } catch (IOException i) {
+            i.printStackTrace();
+        }
+    }
 
     private void process(String in) {
         String tokens[] = in.split(" ");
@@ -83,20 +113,27 @@ public class AdminMenu extends Thread {
                     break;
                 }
                 case "SAVE": {
-                    try {
-                        state.printStatus();
-                        FileOutputStream fileOut =
-                                new FileOutputStream("/tmp/" + tokens[1] + ".ser");
-                        ObjectOutputStream out = new ObjectOutputStream(fileOut);
-                        out.writeObject(state);
-                        out.close();
-                        fileOut.close();
-                        System.out.printf("Serialized data is saved in /tmp/" + tokens[1] + ".ser");
-                    } catch (IOException i) {
-                        i.printStackTrace();
+                    state.printStatus();
+                    save(tokens[1]);
+                    break;
+                }
+                case "AUTOSAVE": {
+                    if (autosave != null) {
+                        autosave.cancel(false);
+                        autosave = null;
+                    }
+                    if (!tokens[1].equals("OFF")) {
+                        String name = tokens[1];
+                        long period = Long.parseLong(tokens[2]);
+                        autosave = saver.scheduleAtFixedRate(() -> save(name), period, period, SECONDS);
                     }
                     break;
                 }
+                case "QUEUE": {
+                    state.queueActions(tokens[1].equals("ON"));
+                    System.err.println(state.queuesActions() ? "Queueing early actions" : "Rejecting early actions");
+                    break;
+                }
                 case "QUIT":{
                     System.exit(0);
                 }
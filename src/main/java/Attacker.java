@@ -128,6 +128,18 @@ public class Attacker extends Player implements Serializable {
         return this.bombs;
     }
 
+    /**
+     * Time left before the player can attack again, the same check as {@link Attacker#canAttack()}
+     *
+     * @return the cooldown left in nanoseconds, 0 if the player can attack now
+     * @throws RemoteException if rmi fails
+     */
+    long cooldown() throws RemoteException {
+        resetBoost();
+        double wait = baseCooldown - (boosted ? 10 * this.speed : this.speed);
+        return Math.max(0, this.lastAttack + (long) (wait * 1e9) + 1 - System.nanoTime());
+    }
+
     /**
      * Check if the player can attack again
      *
@@ -150,10 +162,12 @@ public class Attacker extends Player implements Serializable {
      * @throws RemoteException if rmi fails
      */
     private int levelUpAr() throws RemoteException {
+        preserve();
         int cr = getCredits();
         if (super.removeCredits(toLevelUpAr)) {
             attackRating += 1;
             toLevelUpAr *= 2;
+            logStats();
             return attackRating;
         }
         System.err.println("Need " + toLevelUpAr + " credits to level up attack rating, current credits: " + cr);
@@ -167,11 +181,13 @@ public class Attacker extends Player implements Serializable {
      * @throws RemoteException if rmi fails
      */
     private int levelUpSpeed() throws RemoteException {
+        preserve();
         int cr = getCredits();
         if (((System.nanoTime() - this.lastBoost) > this.speed)) {
             if (super.removeCredits(toLevelUpSpeed)) {
                 speed += 1;
                 toLevelUpSpeed *= 2;
+                logStats();
                 return speed;
             }
         }
@@ -208,6 +224,7 @@ public class Attacker extends Player implements Serializable {
      * @throws RemoteException if rmi fails
      */
     int bomb(ArrayList<GameBlock> blocks) throws RemoteException {
+        preserve();
 //        System.err.println("Bombing " + blocks.get(0).toString());
         if (!canAttack()) return 0;
         int sum = 0;
@@ -228,7 +245,10 @@ public class Attacker extends Player implements Serializable {
             }
             lastAttack = System.nanoTime();
         }
-        if (res != blocks.size()) bombs--;
+        if (res != blocks.size()) {
+            bombs--;
+            logStats();
+        }
         if (sum > 0) gainCredits(sum);
         return sum;
     }
@@ -253,15 +273,20 @@ public class Attacker extends Player implements Serializable {
      */
     @Override
     public synchronized int boost() throws RemoteException {
-        if ((System.nanoTime() - this.lastBoost) / 1e9 > boostCooldown) {
-            if (super.removeCredits(boostCost)) {
+        int stripe = enter();
+        try {
+            if ((System.nanoTime() - this.lastBoost) / 1e9 > boostCooldown) {
+                if (super.removeCredits(boostCost)) {
 //            this.speed = this.speed * 2;
-                lastBoost = System.nanoTime();
-                this.boosted = true;
-                return 1;
+                    lastBoost = System.nanoTime();
+                    this.boosted = true;
+                    return 1;
+                }
             }
+            return 0;
+        } finally {
+            exit(stripe);
         }
-        return 0;
     }
 
     /**
@@ -272,7 +297,12 @@ public class Attacker extends Player implements Serializable {
      */
     @Override
     public int upgradePrimary() throws RemoteException {
-        return levelUpAr();
+        int stripe = enter();
+        try {
+            return levelUpAr();
+        } finally {
+            exit(stripe);
+        }
     }
 
     /**
@@ -283,7 +313,12 @@ public class Attacker extends Player implements Serializable {
      */
     @Override
     public int upgradeSecondary() throws RemoteException {
-        return levelUpSpeed();
+        int stripe = enter();
+        try {
+            return levelUpSpeed();
+        } finally {
+            exit(stripe);
+        }
     }
 
     /**
@@ -294,13 +329,19 @@ public class Attacker extends Player implements Serializable {
      */
     @Override
     public int buyItem() throws RemoteException {
-        if (super.removeCredits(bombPrice)) {
-            bombs++;
-        } else {
+        int stripe = enter();
+        try {
+            if (super.removeCredits(bombPrice)) {
+                bombs++;
+                logStats();
+            } else {
 //            System.err.println("Not enough credits to buy a shield, " + bombPrice + " credits needed");
-            return -bombPrice;
+                return -bombPrice;
+            }
+            return bombs;
+        } finally {
+            exit(stripe);
         }
-        return bombs;
     }
 
     /**
@@ -310,8 +351,10 @@ public class Attacker extends Player implements Serializable {
      */
     @Override
     public void setPrimary(int a) {
+        preserve();
         if (a > 0)
             this.attackRating = a;
+        logStats();
     }
 
 
@@ -322,8 +365,10 @@ public class Attacker extends Player implements Serializable {
      */
     @Override
     public void setItems(int a) {
+        preserve();
         if (a > 0)
             this.bombs = a;
+        logStats();
     }
 
     /**
@@ -333,8 +378,10 @@ public class Attacker extends Player implements Serializable {
      */
     @Override
     public void setSecondary(int a) {
+        preserve();
         if (a > 0)
             this.speed = a;
+        logStats();
     }
 
     /**
@@ -344,8 +391,10 @@ public class Attacker extends Player implements Serializable {
      */
     @Override
     public void setLevelPrimary(int a) {
+        preserve();
         if (a > 0)
             this.toLevelUpAr = a;
+        logStats();
     }
 
     /**
@@ -355,7 +404,23 @@ public class Attacker extends Player implements Serializable {
      */
     @Override
     public void setLevelSecondary(int a) {
+        preserve();
         if (a > 0)
             this.toLevelUpSpeed = a;
+        logStats();
+    }
+
+    @Override
+    int[] stats() {
+        return new int[]{attackRating, speed, bombs, toLevelUpAr, toLevelUpSpeed};
+    }
+
+    @Override
+    void setStats(int[] stats) {
+        attackRating = stats[0];
+        speed = stats[1];
+        bombs = stats[2];
+        toLevelUpAr = stats[3];
+        toLevelUpSpeed = stats[4];
     }
 }
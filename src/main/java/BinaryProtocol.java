@@ -0,0 +1,152 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary framing for the socket port
+ * <p>
+ * A client selects it by sending {@link BinaryProtocol#MAGIC} as the very first byte
+ * of the connection, text clients always start with a letter. After that every
+ * request and every reply is a frame:
+ * <pre>
+ * int  length   number of bytes that follow
+ * byte opcode
+ * int  tag      copied from the request to its reply
+ * ...  payload
+ * </pre>
+ * Actions address the player by the id returned from {@link BinaryProtocol#INTERN}
+ * and the block by its three coordinates, and are answered with a single int,
+ * so the server does not parse or build any strings for them.
+ * {@link BinaryProtocol#TEXT} carries any other text protocol request.
+ */
+final class BinaryProtocol {
+    static final byte MAGIC = (byte) 0xB7;
+
+    /**
+     * payload: UTF-8 username, reply: player id or -1 if the player is not registered
+     */
+    static final byte INTERN = 1;
+    /**
+     * payload: player id, x, y, z, reply: same result as the text protocol
+     */
+    static final byte ATTACK = 2;
+    static final byte REPAIR = 3;
+    static final byte BOMB = 4;
+    static final byte SHIELD = 5;
+    /**
+     * no payload, reply: the state of the game
+     */
+    static final byte GETEND = 6;
+    /**
+     * payload: UTF-8 text request, reply: UTF-8 text reply
+     */
+    static final byte TEXT = 7;
+
+    /**
+     * size of the opcode and the tag
+     */
+    static final int HEADER = 5;
+    static final int MAX_FRAME = 1 << 20;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Write an action frame
+     *
+     * @param out    the stream to write to
+     * @param op     {@link BinaryProtocol#ATTACK}, {@link BinaryProtocol#REPAIR},
+     *               {@link BinaryProtocol#BOMB} or {@link BinaryProtocol#SHIELD}
+     * @param tag    request tag
+     * @param player interned player id
+     * @param block  block coordinates
+     * @throws IOException if socket communication fails
+     */
+    static void writeAction(DataOutputStream out, byte op, int tag, int player, int[] block) throws IOException {
+        out.writeInt(HEADER + 16);
+        out.writeByte(op);
+        out.writeInt(tag);
+        out.writeInt(player);
+        out.writeInt(block[0]);
+        out.writeInt(block[1]);
+        out.writeInt(block[2]);
+    }
+
+    /**
+     * Write a frame without payload
+     *
+     * @param out the stream to write to
+     * @param op  opcode
+     * @param tag request tag
+     * @throws IOException if socket communication fails
+     */
+    static void writeRequest(DataOutputStream out, byte op, int tag) throws IOException {
+        out.writeInt(HEADER);
+        out.writeByte(op);
+        out.writeInt(tag);
+    }
+
+    /**
+     * Write a frame with a text payload
+     *
+     * @param out  the stream to write to
+     * @param op   {@link BinaryProtocol#TEXT} or {@link BinaryProtocol#INTERN}
+     * @param tag  request tag
+     * @param text the payload
+     * @throws IOException if socket communication fails
+     */
+    static void writeText(DataOutputStream out, byte op, int tag, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(HEADER + bytes.length);
+        out.writeByte(op);
+        out.writeInt(tag);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a reply frame that carries a single int
+     *
+     * @param in the stream to read from
+     * @return the result
+     * @throws IOException if socket communication fails or the frame is not an int reply
+     */
+    static int readInt(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length != HEADER + 4) throw new IOException("Unexpected frame length " + length);
+        in.readByte();
+        in.readInt();
+        return in.readInt();
+    }
+
+    /**
+     * Read a reply frame that carries text
+     *
+     * @param in the stream to read from
+     * @return the text
+     * @throws IOException if socket communication fails or the frame is too long
+     */
+    static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < HEADER || length > MAX_FRAME) throw new IOException("Unexpected frame length " + length);
+        in.readByte();
+        in.readInt();
+        byte[] bytes = new byte[length - HEADER];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parse a block name without splitting it
+     *
+     * @param block a block formatted as X_Y_Z
+     * @return the three coordinates of the block
+     */
+    static int[] coordinates(String block) {
+        int a = block.indexOf('_');
+        int b = block.indexOf('_', a + 1);
+        return new int[]{Integer.parseInt(block.substring(0, a)),
+                Integer.parseInt(block.substring(a + 1, b)),
+                Integer.parseInt(block.substring(b + 1))};
+    }
+}
@@ -11,13 +11,19 @@ public class Bot extends Thread {
     static final ArrayList<statsEntry> defendStatsRmi = new ArrayList<>();
     static final ArrayList<statsEntry> defendStatsSocket = new ArrayList<>();
     static final ArrayList<statsEntry> attackStatsSocket = new ArrayList<>();
+    static final Latencies latenciesRmi = new Latencies("RMI");
+    static final Latencies latenciesSocket = new Latencies("SOCKET");
     static final String[] roles = {"Defender", "Attacker"};
     static AtomicInteger counter = new AtomicInteger(0);
 
     CountDownLatch countDownLatch;
     String username;
     String regString;
-    String targets;
+    /**
+     * set when the player was registered before the bot started
+     */
+    boolean registered;
+    final TargetView targets = new TargetView();
     volatile boolean running;
     int role;
     int numOps;
@@ -25,6 +31,10 @@ public class Bot extends Thread {
     int secondary;
     int items;
     long avgDelay;
+    /**
+     * where the latency of every request is recorded
+     */
+    Latencies latencies;
     long sleep;
 
     /**
@@ -0,0 +1,312 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs up to hundreds of thousands of socket bots in one process
+ * <p>
+ * A {@link SocketBot} has a thread and a connection of its own, which limits a
+ * generator to a few thousand of them. Here a bot is only its player and the
+ * time of its next action: the bots are spread over a few {@link EventLoop}s,
+ * the bots of a loop send their requests over a few shared {@link MuxConnection}s
+ * and share one copy of the targets, kept up to date for all of them at once.
+ * A bot attacks or repairs a random target, waits for the reply, sleeps and
+ * starts over until the game is over.
+ */
+public class BotEngine {
+    /**
+     * nanoseconds between two updates of the targets of a loop
+     */
+    private static final long REFRESH = 100_000_000L;
+    /**
+     * nanoseconds between two checks whether the game is over
+     */
+    private static final long END_CHECK = 1_000_000_000L;
+    /**
+     * players registered per request before the bots start
+     */
+    private static final int REGISTER_BATCH = 500;
+
+    private final Shard[] shards;
+    private final long sleep;
+    private final Latencies latencies = new Latencies("ENGINE");
+    private final AtomicLong actions = new AtomicLong();
+    private final CountDownLatch done;
+    private volatile boolean over;
+
+    /**
+     * A bot, the time of its next action lives in its loop's timers
+     */
+    private static class LightBot {
+        final String username;
+        final int role;
+        final MuxConnection connection;
+        final String request;
+
+        LightBot(String username, int role, MuxConnection connection) {
+            this.username = username;
+            this.role = role;
+            this.connection = connection;
+            request = (role == 1 ? "ATTACK-" : "REPAIR-") + username + "-";
+        }
+    }
+
+    /**
+     * The bots of one loop, only touched on its thread
+     */
+    private class Shard {
+        final EventLoop loop;
+        final MuxConnection[] connections;
+        final ArrayList<LightBot> bots = new ArrayList<>();
+        final TargetView targets = new TargetView();
+        final Random rand = new Random();
+        int registering;
+        int inFlight;
+        boolean refreshing;
+        boolean stopped;
+        long actions;
+
+        Shard(EventLoop loop, MuxConnection[] connections) {
+            this.loop = loop;
+            this.connections = connections;
+        }
+
+        /**
+         * Register the players of the bots, then start them
+         *
+         * @param registration the secondary and items of every player, by role
+         */
+        void register(String[] registration) {
+            for (int from = 0; from < bots.size(); from += REGISTER_BATCH) {
+                int to = Math.min(bots.size(), from + REGISTER_BATCH);
+                StringBuilder r = new StringBuilder("REGISTERBATCH");
+                for (int i = from; i < to; i++) {
+                    LightBot bot = bots.get(i);
+                    r.append('-').append(bot.username).append('-').append(bot.role).append('-')
+                            .append(registration[bot.role]);
+                }
+                int first = from;
+                registering++;
+                connections[0].send(r.toString(), reply -> registered(first, reply));
+            }
+        }
+
+        private void registered(int from, String reply) {
+            if (reply != null) {
+                // REGISTERBATCH-count-flags, empty if the batch could not be parsed
+                String[] tokens = reply.split("-");
+                if (tokens.length < 3) {
+                    System.err.println("Could not register the batch from " + bots.get(from).username);
+                } else {
+                    String flags = tokens[2].replace(".", "");
+                    for (int i = 0; i < flags.length(); i++) {
+                        if (flags.charAt(i) != '1') System.err.println("Could not register " + bots.get(from + i).username);
+                    }
+                }
+            }
+            if (--registering > 0) return;
+            refresh();
+            long now = System.nanoTime();
+            for (LightBot bot : bots) {
+                // spread the first actions over a sleep so the bots do not act in lockstep
+                loop.schedule(now + (long) (rand.nextDouble() * Math.max(sleep, REFRESH)), () -> act(bot));
+            }
+        }
+
+        /**
+         * Bring the targets up to date, and now and then check whether the game is over
+         */
+        private void refresh() {
+            if (stopped) return;
+            if (!refreshing) {
+                refreshing = true;
+                long start = System.nanoTime();
+                connections[0].send("GETDELTA-" + targets.version(), reply -> {
+                    refreshing = false;
+                    if (reply == null) {
+                        lost();
+                        return;
+                    }
+                    latencies.record(Latencies.TARGETS, start);
+                    apply(reply);
+                });
+            }
+            loop.schedule(System.nanoTime() + REFRESH, this::refresh);
+        }
+
+        private void apply(String reply) {
+            String[] versioned = reply.split("-", 3);
+            if (versioned.length == 3 && (versioned[0].equals("TARGETS") || versioned[0].equals("DELTA"))) {
+                targets.apply(Long.parseLong(versioned[1]), versioned[2], versioned[0].equals("DELTA"));
+            }
+        }
+
+        /**
+         * Check whether the game is over, only the first loop asks since
+         * the reply carries the whole leaderboard
+         */
+        void checkEnd() {
+            if (stopped) return;
+            long start = System.nanoTime();
+            connections[0].send("GETEND", reply -> {
+                if (reply == null) {
+                    lost();
+                    return;
+                }
+                latencies.record(Latencies.END, start);
+                if (reply.indexOf("(") < 0) return;
+                int res = Integer.parseInt(reply.substring(reply.indexOf("(") + 1, reply.indexOf(")")));
+                if (res == 1 || res == -1 || res == 666) {
+                    System.err.println(res == 666 ? "Server crashed" : "Game over");
+                    over = true;
+                    for (Shard s : shards) {
+                        s.loop.execute(s::drained);
+                    }
+                }
+            });
+            loop.schedule(System.nanoTime() + END_CHECK, this::checkEnd);
+        }
+
+        private void act(LightBot bot) {
+            if (over || stopped || bot.connection.isClosed()) {
+                drained();
+                return;
+            }
+            String target = targets.random(rand);
+            if (target == null) {
+                // nothing to hit until the next update
+                loop.schedule(System.nanoTime() + REFRESH, () -> act(bot));
+                return;
+            }
+            long start = System.nanoTime();
+            inFlight++;
+            bot.connection.send(bot.request + target, reply -> {
+                inFlight--;
+                if (reply == null) {
+                    lost();
+                    return;
+                }
+                latencies.record(bot.role, start);
+                actions++;
+                if (reply.indexOf("(-") > 0) {
+                    // the target is gone, the next update confirms it
+                    targets.remove(target);
+                }
+                loop.schedule(System.nanoTime() + sleep, () -> act(bot));
+            });
+        }
+
+        /**
+         * The connections were lost, the bots of this loop stop
+         */
+        private void lost() {
+            if (stopped) return;
+            System.err.println(loop.getName() + " lost its connection to the server");
+            for (MuxConnection c : connections) {
+                c.close();
+            }
+            finish();
+        }
+
+        /**
+         * Stop once the game is over and no request waits for a reply
+         */
+        private void drained() {
+            if (!stopped && inFlight == 0) finish();
+        }
+
+        private void finish() {
+            stopped = true;
+            BotEngine.this.actions.addAndGet(actions);
+            done.countDown();
+        }
+    }
+
+    /**
+     * @param host         host of the server
+     * @param port         port of the rmi registry, the socket server listens on the next one
+     * @param attackers    number of attackers
+     * @param defenders    number of defenders
+     * @param sleep        seconds a bot sleeps after each reply
+     * @param registration the primary, secondary and items of the players by role, as in REGISTERBATCH
+     * @param loops        threads the bots are spread over
+     * @param connections  connections per loop
+     * @throws IOException if the server cannot be reached
+     */
+    private BotEngine(String host, int port, int attackers, int defenders, double sleep, String[] registration,
+                      int loops, int connections) throws IOException {
+        this.sleep = (long) (sleep * 1e9);
+        shards = new Shard[loops];
+        done = new CountDownLatch(loops);
+        for (int l = 0; l < loops; l++) {
+            EventLoop loop = new EventLoop("engine-" + l);
+            MuxConnection[] c = new MuxConnection[connections];
+            for (int i = 0; i < connections; i++) {
+                c[i] = new MuxConnection(loop, host, port + 1);
+            }
+            shards[l] = new Shard(loop, c);
+        }
+        String run = Long.toString(new Random().nextInt(Integer.MAX_VALUE), 36);
+        for (int i = 0; i < attackers + defenders; i++) {
+            Shard s = shards[i % loops];
+            MuxConnection c = s.connections[(i / loops) % connections];
+            s.bots.add(new LightBot("Engine" + run + "x" + i, i < attackers ? 1 : 0, c));
+        }
+
+        long start = System.nanoTime();
+        for (Shard s : shards) {
+            s.loop.start();
+            s.loop.execute(() -> s.register(registration));
+        }
+        shards[0].loop.execute(shards[0]::checkEnd);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        for (Shard s : shards) {
+            s.loop.shutdown();
+        }
+
+        System.out.format("%d bots on %d loops made %d actions in %.02f seconds, %.0f per second%n",
+                attackers + defenders, loops, actions.get(), elapsed, actions.get() / elapsed);
+        BufferedWriter out = new BufferedWriter(new FileWriter(System.getProperty("user.home") + "/LATENCY_ENGINE_" +
+                attackers + "_" + defenders + "_" + loops + "_" + connections + ".csv"));
+        Latencies.writeHeader(out);
+        latencies.write(out);
+        out.close();
+    }
+
+    /**
+     * Command line program
+     *
+     * @param args host
+     *             port
+     *             Attackers
+     *             Defenders
+     *             sleepTime(seconds)
+     *             AttackerPrimary
+     *             DefenderPrimary
+     *             event loops
+     *             connections per loop
+     * @throws IOException when the server cannot be reached or the results cannot be written
+     */
+    public static void main(String args[]) throws IOException {
+        System.err.println("Creating new bot engine");
+        new BotEngine(
+                args[0],
+                Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]),
+                Double.parseDouble(args[4]),
+                new String[]{args[6] + "-5-0", args[5] + "-5-0"},
+                args.length > 7 ? Integer.parseInt(args[7]) : Runtime.getRuntime().availableProcessors(),
+                args.length > 8 ? Integer.parseInt(args[8]) : 2);
+        System.exit(0);
+    }
+}
@@ -1,15 +1,22 @@
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 
 /**
  * Creates rmi and socket attacker and defender bots that target
- * the first block on their list until the game is over
+ * the first block on their list until the game is over, then writes
+ * the stats of every bot and the latency percentiles of every kind of
+ * request to csv files in the home directory
  */
 public class BotGenerator {
+    /**
+     * players registered per call before the bots start
+     */
+    private static final int REGISTER_BATCH = 1000;
 
     private String getSaltString() {
         String SALTCHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
@@ -47,6 +54,8 @@ public class BotGenerator {
      * @param defenderSecondary TODO
      * @param defenderItems     TODO
      * @param randomTargeting   randomized targeting
+     * @param binary            socket bots use the binary protocol
+     * @param pooled            sessions the socket bots share, 0 for a session per bot
      * @throws InterruptedException
      * @throws IOException
      */
@@ -55,7 +64,8 @@ public class BotGenerator {
                          int SocketA, int SocketD,
                          double sleep,
                          int attackerPrimary, int attackerSecondary, int attackerItems,
-                         int defenderPrimary, int defenderSecondary, int defenderItems, boolean randomTargeting) throws InterruptedException, IOException {
+                         int defenderPrimary, int defenderSecondary, int defenderItems, boolean randomTargeting,
+                         boolean binary, int pooled) throws InterruptedException, IOException {
         String defString = defenderPrimary + "-" + defenderSecondary + "-" + defenderItems;
         String atkString = attackerPrimary + "-" + attackerSecondary + "-" + attackerItems;
 
@@ -80,6 +90,8 @@ public class BotGenerator {
         System.err.println("SocketDefenders: " + SocketD);
         System.err.println("Sleep(seconds): " + sleep);
         System.err.println("Random Targeting: " + randomTargeting);
+        System.err.println("Binary Protocol: " + binary);
+        System.err.println("Pooled Sessions: " + pooled);
 
         ArrayList<Bot> bots = new ArrayList<>();
 
@@ -97,18 +109,25 @@ public class BotGenerator {
             bots.add(new RmiBot(state, username, 0, randomizedSleep(sleep), regString, countDownLatch, randomTargeting));
         }
 
+        ConnectionPool pool = null;
+        if (pooled > 0 && !binary && SocketA + SocketD > 0) {
+            pool = new ConnectionPool(host, port + 1, pooled);
+        }
+
         for (int i = 0; i < SocketA; i++) {
             String username = "SocketAttacker:" + getSaltString();
             String regString = username + "-" + 1 + "-" + atkString;
-            bots.add(new SocketBot(username, 1, host, port, randomizedSleep(sleep), regString, countDownLatch));
+            bots.add(new SocketBot(username, 1, host, port, randomizedSleep(sleep), regString, countDownLatch, binary, pool));
         }
 
         for (int i = 0; i < SocketD; i++) {
             String username = "SocketDefender:" + getSaltString();
             String regString = username + "-" + 0 + "-" + defString;
-            bots.add(new SocketBot(username, 0, host, port, randomizedSleep(sleep), regString, countDownLatch));
+            bots.add(new SocketBot(username, 0, host, port, randomizedSleep(sleep), regString, countDownLatch, binary, pool));
         }
 
+        register(state, bots);
+
         bots.forEach(Thread::start);
 
         countDownLatch.countDown();
@@ -120,6 +139,7 @@ public class BotGenerator {
             b.join();
         }
         long totalTime = System.nanoTime() - startTime;
+        if (pool != null) pool.close();
 
         System.out.format("saving stats\nTotal Time: %.02f seconds\n", (totalTime / 1e9));
 
@@ -159,6 +179,47 @@ public class BotGenerator {
 
             outputWriter.close();
         }
+
+        //LOG LATENCY PERCENTILES
+        outputWriter = new BufferedWriter(
+                new FileWriter(System.getProperty("user.home") + "/LATENCY_" + num + "_" +
+                        RMIA + "_" + RMID + "_" + SocketA + "_" + SocketD +
+                        ".csv"));
+        Latencies.writeHeader(outputWriter);
+        Bot.latenciesRmi.write(outputWriter);
+        Bot.latenciesSocket.write(outputWriter);
+        outputWriter.close();
+    }
+
+    /**
+     * Register the players of all the bots with a few calls instead of one per bot,
+     * a bot whose player could not be registered tries again on its own
+     *
+     * @param state the server
+     * @param bots  the bots to register
+     */
+    private void register(RemoteState state, ArrayList<Bot> bots) {
+        long start = System.nanoTime();
+        int registered = 0;
+        for (int from = 0; from < bots.size(); from += REGISTER_BATCH) {
+            int to = Math.min(bots.size(), from + REGISTER_BATCH);
+            String[] registrations = new String[to - from];
+            for (int i = from; i < to; i++) {
+                registrations[i - from] = bots.get(i).regString;
+            }
+            try {
+                boolean[] res = state.registerBatch(registrations);
+                for (int i = from; i < to; i++) {
+                    bots.get(i).registered = res[i - from];
+                    if (res[i - from]) registered++;
+                }
+            } catch (RemoteException e) {
+                System.err.println("Batch registration failed, bots will register themselves: " + e.getMessage());
+                return;
+            }
+        }
+        System.err.format("Registered %d of %d bots in %.02f seconds%n", registered, bots.size(),
+                (System.nanoTime() - start) / 1e9);
     }
 
     /**
@@ -178,6 +239,8 @@ public class BotGenerator {
      *             DefenderSecondary
      *             DefenderItems
      *             randomized block targeting
+     *             binary socket protocol
+     *             sessions shared by the socket bots, 0 for one per bot
      * @throws InterruptedException when socket errors occur
      * @throws IOException          when rmi errors occur
      */
@@ -199,6 +262,8 @@ public class BotGenerator {
                 Integer.parseInt(args[10]),
                 Integer.parseInt(args[11]),
                 Integer.parseInt(args[12]),
-                (args.length > 13) && (args[13].equals("1")));
+                (args.length > 13) && (args[13].equals("1")),
+                (args.length > 14) && (args[14].equals("1")),
+                args.length > 15 ? Integer.parseInt(args[15]) : 0);
     }
 }
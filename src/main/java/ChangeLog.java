@@ -0,0 +1,89 @@
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size ring of the ids of the blocks whose hitpoints changed,
+ * in the order of their sequence numbers
+ * <p>
+ * Writers claim a sequence number and fill its slot without locking. A reader
+ * that asks for changes that were already overwritten is told so and has to
+ * start over from a full list of the blocks.
+ */
+class ChangeLog implements Serializable {
+    private final AtomicLong head;
+    private final AtomicLongArray seqs;
+    private final AtomicIntegerArray ids;
+    private final int mask;
+
+    /**
+     * Constructor
+     *
+     * @param capacity number of changes kept, rounded up to a power of two
+     */
+    ChangeLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.head = new AtomicLong(1);
+        this.seqs = new AtomicLongArray(size);
+        this.ids = new AtomicIntegerArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Record a change
+     *
+     * @param id the id of the block that changed
+     * @return the sequence number of the change
+     */
+    long append(int id) {
+        long seq = head.getAndIncrement();
+        int slot = (int) seq & mask;
+        seqs.set(slot, 0);
+        ids.set(slot, id);
+        seqs.set(slot, seq);
+        return seq;
+    }
+
+    /**
+     * @return the sequence number the next change will get
+     */
+    long head() {
+        return head.get();
+    }
+
+    /**
+     * @return the number of changes kept
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Copy the changes from one sequence number up to another one, stopping
+     * early at a change that was claimed but is not written yet
+     *
+     * @param from the first sequence number to copy
+     * @param to   the sequence number after the last one to copy
+     * @param out  receives the block ids, must hold at least to - from of them
+     * @return the number of changes copied, or -1 if some of them were overwritten
+     */
+    int read(long from, long to, int[] out) {
+        if (to - from > capacity()) return -1;
+        int n = 0;
+        for (long s = from; s < to; s++) {
+            int slot = (int) s & mask;
+            long before = seqs.get(slot);
+            int id = ids.get(slot);
+            long after = seqs.get(slot);
+            if (before != s || after != s) {
+                if (before > s || after > s) return -1;
+                break;
+            }
+            out[n++] = id;
+        }
+        // a writer may have wrapped around while we were copying
+        if (head.get() - from > capacity()) return -1;
+        return n;
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A few sessions on the socket server that any number of bots share
+ * <p>
+ * A bot thread hands its requests to the pool and waits for the replies,
+ * the requests of all the bots are tagged and written to the sessions in
+ * turn by a single {@link EventLoop}, so thousands of bots need neither a
+ * connection nor a port of their own. The pool also checks whether the game is
+ * over on behalf of all the bots, so they do not need to ask with every action.
+ */
+class ConnectionPool {
+    /**
+     * nanoseconds between two checks whether the game is over
+     */
+    private static final long END_CHECK = 100_000_000L;
+
+    private final EventLoop loop;
+    private final MuxConnection[] connections;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile int end;
+
+    /**
+     * @param host host of the server
+     * @param port port of the socket server
+     * @param size number of sessions
+     * @throws IOException if the server cannot be reached
+     */
+    ConnectionPool(String host, int port, int size) throws IOException {
+        loop = new EventLoop("connection-pool");
+        connections = new MuxConnection[size];
+        for (int i = 0; i < size; i++) {
+            connections[i] = new MuxConnection(loop, host, port);
+        }
+        loop.start();
+        loop.execute(this::checkEnd);
+    }
+
+    /**
+     * @return the state of the game as of the last check, as in GETEND
+     */
+    int end() {
+        return end;
+    }
+
+    private void checkEnd() {
+        connections[0].send("GETEND", reply -> {
+            if (reply == null) {
+                end = 666;
+                return;
+            }
+            // an empty reply keeps the last state
+            if (reply.indexOf("(") >= 0) end = Integer.parseInt(reply.substring(reply.indexOf("(") + 1, reply.indexOf(")")));
+            if (end == 0 || end == -2) loop.schedule(System.nanoTime() + END_CHECK, this::checkEnd);
+        });
+    }
+
+    /**
+     * Send requests on the same session, so that they run in order, and wait for their replies
+     *
+     * @param reqs the requests, as for a single request socket connection
+     * @return the replies with their lines joined by dots, in the order of the requests
+     * @throws IOException if the session was lost before every reply arrived
+     */
+    String[] request(String... reqs) throws IOException {
+        MuxConnection connection = connections[Math.floorMod(next.getAndIncrement(), connections.length)];
+        ArrayList<CompletableFuture<String>> replies = new ArrayList<>(reqs.length);
+        for (int i = 0; i < reqs.length; i++) {
+            replies.add(new CompletableFuture<>());
+        }
+        loop.execute(() -> {
+            for (int i = 0; i < reqs.length; i++) {
+                connection.send(reqs[i], replies.get(i)::complete);
+            }
+        });
+        String[] res = new String[reqs.length];
+        try {
+            for (int i = 0; i < reqs.length; i++) {
+                res[i] = replies.get(i).get();
+                if (res[i] == null) throw new IOException("Connection to the server lost");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the server", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        return res;
+    }
+
+    /**
+     * End the sessions, requests still waiting for a reply fail
+     */
+    void close() {
+        loop.execute(() -> {
+            for (MuxConnection c : connections) {
+                c.close();
+            }
+            loop.shutdown();
+        });
+    }
+}
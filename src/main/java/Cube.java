@@ -1,18 +1,76 @@
 import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.NoSuchElementException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Creates a cube comprised of different layers
  * that include a decreasing amount of blocks
  */
 public class Cube implements Serializable {
-    final ConcurrentHashMap<String, GameBlock> cubeMap;
+    /**
+     * Bits of a block id used by the index of the block within its layer,
+     * the face uses the next 4 bits and the level the remaining ones
+     */
+    private static final int IDX_BITS = 20;
+    private static final int FACE_BITS = 4;
+    private static final int IDX_MASK = (1 << IDX_BITS) - 1;
+    private static final int FACE_MASK = (1 << FACE_BITS) - 1;
+
+    /**
+     * every block indexed by [level - 1][idx]
+     */
+    private final GameBlock[][] blocks;
+    private int blockCount;
+    private final int side;
+    private final int blockHp;
     private final ConcurrentLinkedQueue<Layer> layers;
-    Layer currentLayer;
+    volatile Layer currentLayer;
+
+    /**
+     * minimum time between two renderings of the targets while blocks keep changing
+     */
+    static final long TARGETS_REFRESH = 50_000_000L;
+    private volatile TargetSnapshot targets;
+    private volatile Layer targetsLayer;
+    private volatile long targetsBuilt;
+    /**
+     * set by any change to the hitpoints of a block since the targets were rendered
+     */
+    private volatile boolean targetsDirty;
+    private final AtomicBoolean rendering = new AtomicBoolean();
+
+    /**
+     * number of block changes kept for clients that ask for the changes since their version
+     */
+    static final int CHANGES = 1 << 16;
+    /**
+     * ids of the blocks whose hitpoints changed, the versions of the
+     * targets are sequence numbers of this log
+     */
+    private final ChangeLog changes = new ChangeLog(CHANGES);
+
+    /**
+     * lets snapshots read the blocks as they were at one point in time
+     */
+    final Epoch epoch = new Epoch();
+
+    /**
+     * where the changes to the blocks are logged, null if they are not
+     */
+    transient volatile ActionLog log;
+
+    /**
+     * where destroyed blocks and layers are published, set by the game state
+     */
+    transient EventDispatcher events;
     private ConcurrentHashMap<String, GameBlock> activeCubes;
 
     /**
@@ -28,8 +86,30 @@ public class Cube implements Serializable {
         ArrayList<GameBlock> face4;
         ArrayList<GameBlock> face5;
         ArrayList<GameBlock> face6;
+        /**
+         * every block of the layer, dead or alive
+         */
         ArrayList<GameBlock> layer;
 
+        /**
+         * The blocks still alive are kept in the first {@link Layer#liveSize}
+         * slots of {@link Layer#live}, and {@link Layer#position} maps the idx
+         * of a block to its slot, or -1 once it was removed
+         */
+        private final Object liveLock = new Object();
+        private GameBlock[] live;
+        private int[] position;
+        private volatile int liveSize;
+        /**
+         * number of blocks with hitpoints left, decremented by the
+         * attack that takes a block to zero
+         */
+        private final AtomicInteger alive;
+        /**
+         * sequence number of the first change made while this was the current layer
+         */
+        private volatile long firstChange = 1;
+
         /**
          * Creates a layer based on the given parameters
          *
@@ -210,34 +290,125 @@ public class Cube implements Serializable {
                 System.err.println("3 " + layer.size());
             }
 
+            int length = 0;
+            for (GameBlock block : layer) {
+                length = Math.max(length, block.idx() + 1);
+            }
+            live = new GameBlock[layer.size()];
+            position = new int[length];
+            Arrays.fill(position, -1);
+            for (GameBlock block : layer) {
+                position[block.idx()] = liveSize;
+                live[liveSize++] = block;
+                block.layer = this;
+            }
+            alive = new AtomicInteger(liveSize);
         }
 
         /**
-         * @return true if there are hitpoints remaining in
-         * the blocks in the layer, false otherwise
-         * @throws RemoteException if rmi fails
+         * @return the epoch of the cube
          */
-        synchronized boolean isAlive() throws RemoteException {
-            if (layer == null) return false;
-            if (layer.size() == 0) return false;
+        Epoch epoch() {
+            return epoch;
+        }
 
-            try {
+        /**
+         * @return the log of the cube, or null if changes are not logged
+         */
+        ActionLog log() {
+            return log;
+        }
+
+        /**
+         * Called when the hitpoints of a block of the layer change
+         *
+         * @param block the block that changed
+         */
+        void changed(GameBlock block) {
+            changes.append(block.id());
+            if (!targetsDirty) targetsDirty = true;
+        }
+
+        /**
+         * Called once for every block of the layer, by the attack that destroys it
+         *
+         * @param block the destroyed block
+         */
+        void destroyed(GameBlock block) {
+            remove(block);
+            EventDispatcher events = Cube.this.events;
+            if (events != null && events.hasSubscribers()) {
+                events.publish(GameEvent.DESTROYED, 0, block.toString());
+            }
+            if (alive.decrementAndGet() == 0) {
+                advance(this);
+            }
+        }
 
-                for (int i = 0; i < layer.size(); i++) {
-                    GameBlock gb = layer.get(i);
-                    if (gb != null && gb.getHp() > 0) {
-                        return true;
-                    }
+        /**
+         * Remove a destroyed block from the live blocks
+         * by moving the last live block into its slot
+         *
+         * @param block a block of this layer
+         * @return true if the block was removed, false if it was already removed
+         */
+        private boolean remove(GameBlock block) {
+            synchronized (liveLock) {
+                int pos = position[block.idx()];
+                if (pos < 0) return false;
+                int last = liveSize - 1;
+                GameBlock moved = live[last];
+                live[pos] = moved;
+                position[moved.idx()] = pos;
+                live[last] = null;
+                position[block.idx()] = -1;
+                liveSize = last;
+                return true;
+            }
+        }
+
+        /**
+         * Drop the blocks without hitpoints from the live blocks
+         */
+        void restored() {
+            for (GameBlock block : layer) {
+                try {
+                    if (block.getHp() <= 0) remove(block);
+                } catch (RemoteException e) {
+                    // local call
                 }
-//                for (GameBlock gb : layer) {
-//                    if (gb != null && gb.getHp() > 0) {
-//                        return true;
-//                    }
-//                }
-            } catch (NoSuchElementException e) {
-                System.err.println("maybe it died while we were checking?");
             }
-            return false;
+            alive.set(liveSize);
+        }
+
+        /**
+         * @param rand the random generator to use
+         * @return a random live block, or null if there is none left
+         */
+        GameBlock randomLive(Random rand) {
+            GameBlock[] live = this.live;
+            int size = liveSize;
+            if (size == 0) return null;
+            // may race with a removal, in which case the slot can be empty or hold a dead block
+            return live[rand.nextInt(size)];
+        }
+
+        /**
+         * @return the blocks of the layer that are still alive
+         */
+        GameBlock[] live() {
+            synchronized (liveLock) {
+                return Arrays.copyOf(live, liveSize);
+            }
+        }
+
+        /**
+         * @return true if there are hitpoints remaining in
+         * the blocks in the layer, false otherwise
+         * @throws RemoteException if rmi fails
+         */
+        boolean isAlive() throws RemoteException {
+            return alive.get() > 0;
         }
 
         /**
@@ -255,7 +426,7 @@ public class Cube implements Serializable {
 
         String toStringHp() {
             StringBuilder s = new StringBuilder();
-            for (GameBlock b : layer) {
+            for (GameBlock b : live()) {
                 s.append(b.toStringHp()).append("\n");
             }
             return s.toString();
@@ -263,8 +434,24 @@ public class Cube implements Serializable {
     }
 
     Cube(int size, int blockHp) {
+        this(size, blockHp, true);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param size    the number of blocks along an edge, rounded down to an odd number
+     * @param blockHp the hitpoints of each block
+     * @param list    print every block of the cube
+     */
+    Cube(int size, int blockHp, boolean list) {
         size = (size % 2 == 0) ? (size - 1) : size;
-        cubeMap = new ConcurrentHashMap<>();
+        this.side = size;
+        this.blockHp = blockHp;
+        if (6L * size * size > IDX_MASK) {
+            throw new IllegalArgumentException("Cube size " + size + " is too large");
+        }
+        blocks = new GameBlock[(size + 1) / 2][];
         activeCubes = new ConcurrentHashMap<>();
         layers = new ConcurrentLinkedQueue<>();
         int level = 1;
@@ -275,12 +462,22 @@ public class Cube implements Serializable {
         }
 
         for (Layer layer : layers) {
+            int length = 0;
+            for (GameBlock block : layer.layer) {
+                length = Math.max(length, block.idx() + 1);
+            }
+            GameBlock[] index = new GameBlock[length];
+            blocks[layer.layer.get(0).level() - 1] = index;
             for (GameBlock block : layer.layer) {
-                cubeMap.putIfAbsent(block.toString(), block);
+                index[block.idx()] = block;
+                blockCount++;
             }
         }
 
         currentLayer = layers.poll();
+        targets = new TargetSnapshot(0, "", false);
+        targetsDirty = true;
+        if (!list) return;
         for (GameBlock gb : currentLayer.layer) {
             System.err.println(gb.toString());
         }
@@ -293,29 +490,145 @@ public class Cube implements Serializable {
         }
     }
 
-    private String coordToString(int w, int h, int d) {
-        return (w + "_" + h + "_" + d);
+    /**
+     * @return true while there is a layer with blocks left
+     * @throws RemoteException if rmi fails
+     */
+    boolean isAlive() throws RemoteException {
+        Layer layer = currentLayer;
+        return layer != null && (layer.isAlive() || advance(layer));
+    }
+
+    /**
+     * Return the targets of the current layer, rendered again only if the layer
+     * changed, or if its blocks changed and the last rendering is older than
+     * {@link Cube#TARGETS_REFRESH}. One caller renders while the others
+     * keep getting the previous snapshot.
+     *
+     * @return the latest snapshot of the targets
+     */
+    TargetSnapshot targets() {
+        TargetSnapshot current = targets;
+        Layer layer = currentLayer;
+        boolean stale = layer != targetsLayer
+                || (targetsDirty && System.nanoTime() - targetsBuilt >= TARGETS_REFRESH);
+        if (stale && rendering.compareAndSet(false, true)) {
+            try {
+                targetsDirty = false;
+                // changes made while rendering have a later sequence number and are sent again,
+                // and a layer read after the version is never older than the version
+                long version = changes.head();
+                layer = currentLayer;
+                current = new TargetSnapshot(version, layer == null ? "" : layer.toStringHp(), false);
+                targetsLayer = layer;
+                targetsBuilt = System.nanoTime();
+                targets = current;
+            } finally {
+                rendering.set(false);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return the version the targets will have once every change so far is included
+     */
+    long version() {
+        return changes.head();
+    }
+
+    /**
+     * @return the level of the current layer, or 0 if the cube was destroyed
+     */
+    int level() {
+        Layer layer = currentLayer;
+        return layer == null ? 0 : layer.layer.get(0).level();
     }
 
-    synchronized boolean isAlive() throws RemoteException {
-        if (currentLayer == null) {
-            currentLayer = layers.poll();
-            if (currentLayer == null) {
-                return false;
+    /**
+     * Return the blocks of the current layer that changed since the given version,
+     * or all of them if the version is from another layer or too old
+     *
+     * @param from the version of the targets the caller already has
+     * @return the changed blocks with their hitpoints, destroyed blocks have 0 hitpoints
+     */
+    TargetSnapshot delta(long from) {
+        Layer layer = currentLayer;
+        if (layer == null || from < layer.firstChange) return targets();
+        long to = changes.head();
+        // past a point it is cheaper to send the whole layer
+        if (to - from > Math.min(changes.capacity(), layer.alive.get())) return targets();
+        int[] ids = new int[(int) Math.max(0, to - from)];
+        int n = changes.read(from, to, ids);
+        if (n < 0) return targets();
+        int level = layer.layer.get(0).level();
+        HashSet<Integer> sent = new HashSet<>();
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            GameBlock block = getBlock(ids[i]);
+            if (block != null && block.level() == level && sent.add(ids[i])) {
+                s.append(block.toStringHp()).append("\n");
             }
         }
-        if (currentLayer.isAlive()) {
-            return true;
-        } else {
+        return new TargetSnapshot(from + n, s.toString(), true);
+    }
+
+    /**
+     * Move on from a destroyed layer to the next one that still has blocks
+     *
+     * @param destroyed the layer that was destroyed
+     * @return true if there is a layer left
+     */
+    private synchronized boolean advance(Layer destroyed) {
+        if (currentLayer == destroyed) {
             System.err.println("Layer Destroyed");
-            currentLayer = layers.poll();
-            return currentLayer != null;
+            Layer next = layers.poll();
+            while (next != null && next.alive.get() == 0) {
+                next = layers.poll();
+            }
+            if (next != null) {
+                // versions up to this one may be renderings of the destroyed layer
+                next.firstChange = changes.append(-1) + 1;
+            }
+            currentLayer = next;
+            if (events != null) {
+                if (next != null) {
+                    events.publish(GameEvent.LAYER, next.layer.get(0).level(), null);
+                } else {
+                    events.publish(GameEvent.GAMEOVER, 1, null);
+                }
+            }
         }
+        return currentLayer != null;
     }
 
-    private int[] stringToCoord(String block) {
-        String[] tokens = block.split("_");
-        return new int[]{Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2])};
+    /**
+     * Pack the coordinates of a block into an int that clients can
+     * compute themselves and the cube can resolve without hashing
+     *
+     * @param level level of the block
+     * @param face  face of the block
+     * @param idx   index of the block in its layer
+     * @return the id of the block
+     */
+    static int blockId(int level, int face, int idx) {
+        return (level << (IDX_BITS + FACE_BITS)) | ((face & FACE_MASK) << IDX_BITS) | (idx & IDX_MASK);
+    }
+
+    /**
+     * Parse a block name into its id without splitting it
+     *
+     * @param block a block formatted as X_Y_Z
+     * @return the id of the block
+     * @throws NumberFormatException if the block name is malformed
+     */
+    static int blockId(String block) {
+        int a = block.indexOf('_');
+        int b = block.indexOf('_', a + 1);
+        if (a < 0 || b < 0) throw new NumberFormatException("Malformed block " + block);
+        return blockId(Integer.parseInt(block.substring(0, a)),
+                Integer.parseInt(block.substring(a + 1, b)),
+                Integer.parseInt(block.substring(b + 1)));
     }
 
     public void checkBlock(String s) throws RemoteException {
@@ -328,11 +641,93 @@ public class Cube implements Serializable {
     }
 
     GameBlock getBlock(String s) {
-        return cubeMap.get(s);
+        if (s == null) return null;
+        try {
+            return getBlock(blockId(s));
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     public GameBlock getBlock(int w, int h, int d) {
-        return cubeMap.get(coordToString(w, h, d));
+        if (w < 1 || w > blocks.length) return null;
+        GameBlock[] level = blocks[w - 1];
+        if (d < 0 || d >= level.length) return null;
+        GameBlock block = level[d];
+        return block != null && block.face() == h ? block : null;
+    }
+
+    /**
+     * @param id a block id from {@link Cube#blockId(int, int, int)}
+     * @return the block or null if there is no such block
+     */
+    GameBlock getBlock(int id) {
+        return getBlock(id >>> (IDX_BITS + FACE_BITS), (id >>> IDX_BITS) & FACE_MASK, id & IDX_MASK);
+    }
+
+    /**
+     * @param action applied to every block of the cube
+     */
+    void forEachBlock(Consumer<GameBlock> action) {
+        for (GameBlock[] level : blocks) {
+            for (GameBlock block : level) {
+                if (block != null) action.accept(block);
+            }
+        }
+    }
+
+    /**
+     * @return the number of blocks in the cube
+     */
+    int size() {
+        return blockCount;
+    }
+
+    /**
+     * @return the number of blocks along an edge of the cube
+     */
+    int side() {
+        return side;
+    }
+
+    /**
+     * @return the hitpoints each block started with
+     */
+    int blockHp() {
+        return blockHp;
+    }
+
+    /**
+     * @return the number of levels of the cube
+     */
+    int levels() {
+        return blocks.length;
+    }
+
+    /**
+     * @param level a level of the cube, starting from 1
+     * @return the blocks of the level indexed by idx, with null for unused indexes,
+     * owned by the cube and not to be modified
+     */
+    GameBlock[] level(int level) {
+        return blocks[level - 1];
+    }
+
+    /**
+     * Bring the live blocks and the current layer in line with hitpoints that were
+     * restored from a saved game, before anyone plays
+     */
+    void restored() {
+        Layer layer = currentLayer;
+        if (layer != null) layer.restored();
+        for (Layer l : layers) {
+            l.restored();
+        }
+        while (layer != null && layer.alive.get() == 0) {
+            layer = layers.poll();
+        }
+        currentLayer = layer;
+        targetsDirty = true;
     }
 
     public ArrayList<GameBlock> returnFace() {
@@ -341,6 +736,6 @@ public class Cube implements Serializable {
 
     public static void main(String[] args) {
         Cube cube = new Cube(3, 1);
-        System.err.println(cube.cubeMap.size());
+        System.err.println(cube.size());
     }
 }
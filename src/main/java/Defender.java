@@ -79,21 +79,16 @@ public class Defender extends Player implements Serializable {
         this.shieldLock = new Object();
     }
 
-    /**
-     * resets the lock to enable deserialization
-     */
-    void resetLock() {
-        this.shieldLock = new Object();
-    }
-
     /**
      * sets the repair rating of the player
      *
      * @param a the amount of repair rating to set the repair rating to
      */
     void setRepairRating(int a) {
+        preserve();
         if (a > 0)
             this.repairRating = a;
+        logStats();
     }
 
     /**
@@ -171,6 +166,18 @@ public class Defender extends Player implements Serializable {
         return ((System.nanoTime() - this.lastRepair) > this.speed);
     }
 
+    /**
+     * Time left before the player can repair again, the same check as {@link Defender#canRepair()}
+     *
+     * @return the cooldown left in nanoseconds, 0 if the player can repair now
+     * @throws RemoteException if rmi fails
+     */
+    long cooldown() throws RemoteException {
+        resetBoost();
+        double wait = baseCooldown - (boosted ? 10 * this.speed : this.speed);
+        return Math.max(0, this.lastRepair + (long) (wait * 1e9) + 1 - System.nanoTime());
+    }
+
     /**
      * Temporarily increase the player's speed if he has sufficient credits, and his boost is not in cooldown
      *
@@ -193,10 +200,12 @@ public class Defender extends Player implements Serializable {
      * @throws RemoteException if rmi fails
      */
     private int levelUpRr() throws RemoteException {
+        preserve();
         int cr = getCredits();
         if (super.removeCredits(toLevelUpRr)) {
             repairRating += 1;
             toLevelUpRr *= 2;
+            logStats();
             return repairRating;
         }
         System.err.println("Need " + toLevelUpRr + " credits to level up repair rating, current credits: " + cr);
@@ -210,10 +219,12 @@ public class Defender extends Player implements Serializable {
      * @throws RemoteException if rmi fails
      */
     private int levelUpSpeed() throws RemoteException {
+        preserve();
         if (((System.nanoTime() - this.lastBoost) > this.speed)) {
             if (super.removeCredits(toLevelUpSpeed)) {
                 speed += 1;
                 toLevelUpSpeed *= 2;
+                logStats();
                 return speed;
             }
         }
@@ -240,12 +251,14 @@ public class Defender extends Player implements Serializable {
 
 
     int shield(GameBlock b) throws RemoteException {
+        preserve();
         if (!canRepair()) return 0;
         synchronized (shieldLock) {
             if (this.getShields() > 0) {
                 int res = b.shield(this, this.getRepairRating() * 5);
                 if (res > 0) {
                     shields--;
+                    logStats();
                     lastRepair = System.nanoTime();
                 }
                 return res;
@@ -262,25 +275,40 @@ public class Defender extends Player implements Serializable {
      */
     @Override
     public synchronized int boost() throws RemoteException {
-        if ((System.nanoTime() - this.lastBoost) / 1e9 > boostCooldown) {
-            if (super.removeCredits(boostCost)) {
+        int stripe = enter();
+        try {
+            if ((System.nanoTime() - this.lastBoost) / 1e9 > boostCooldown) {
+                if (super.removeCredits(boostCost)) {
 //            this.speed = this.speed * 2;
-                lastBoost = System.nanoTime();
-                this.boosted = true;
-                return 1;
+                    lastBoost = System.nanoTime();
+                    this.boosted = true;
+                    return 1;
+                }
             }
+            return 0;
+        } finally {
+            exit(stripe);
         }
-        return 0;
     }
 
     @Override
     public int upgradePrimary() throws RemoteException {
-        return levelUpRr();
+        int stripe = enter();
+        try {
+            return levelUpRr();
+        } finally {
+            exit(stripe);
+        }
     }
 
     @Override
     public int upgradeSecondary() throws RemoteException {
-        return levelUpSpeed();
+        int stripe = enter();
+        try {
+            return levelUpSpeed();
+        } finally {
+            exit(stripe);
+        }
     }
 
     /**
@@ -291,13 +319,19 @@ public class Defender extends Player implements Serializable {
      */
     @Override
     public int buyItem() throws RemoteException {
-        if (super.removeCredits(shieldPrice)) {
-            shields++;
-        } else {
+        int stripe = enter();
+        try {
+            if (super.removeCredits(shieldPrice)) {
+                shields++;
+                logStats();
+            } else {
 //            System.err.println("Not enough credits to buy a shield, " + bombPrice + " credits needed");
-            return -shieldPrice;
+                return -shieldPrice;
+            }
+            return shields;
+        } finally {
+            exit(stripe);
         }
-        return shields;
     }
 
     /**
@@ -307,8 +341,10 @@ public class Defender extends Player implements Serializable {
      */
     @Override
     public void setPrimary(int a) {
+        preserve();
         if (a > 0)
             this.repairRating = a;
+        logStats();
     }
 
 
@@ -319,8 +355,10 @@ public class Defender extends Player implements Serializable {
      */
     @Override
     public void setItems(int a) {
+        preserve();
         if (a > 0)
             this.shields = a;
+        logStats();
     }
 
     /**
@@ -330,8 +368,10 @@ public class Defender extends Player implements Serializable {
      */
     @Override
     public void setSecondary(int a) {
+        preserve();
         if (a > 0)
             this.speed = a;
+        logStats();
     }
 
     /**
@@ -341,8 +381,10 @@ public class Defender extends Player implements Serializable {
      */
     @Override
     public void setLevelPrimary(int a) {
+        preserve();
         if (a > 0)
             this.toLevelUpRr = a;
+        logStats();
     }
 
     /**
@@ -352,8 +394,10 @@ public class Defender extends Player implements Serializable {
      */
     @Override
     public void setLevelSecondary(int a) {
+        preserve();
         if (a > 0)
             this.toLevelUpSpeed = a;
+        logStats();
     }
 
     /**
@@ -367,5 +411,18 @@ public class Defender extends Player implements Serializable {
 //            System.err.println("Boost reset");
         }
     }
-}
 
+    @Override
+    int[] stats() {
+        return new int[]{repairRating, speed, shields, toLevelUpRr, toLevelUpSpeed};
+    }
+
+    @Override
+    void setStats(int[] stats) {
+        repairRating = stats[0];
+        speed = stats[1];
+        shields = stats[2];
+        toLevelUpRr = stats[3];
+        toLevelUpSpeed = stats[4];
+    }
+}
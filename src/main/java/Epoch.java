@@ -0,0 +1,101 @@
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Lets a snapshot see the game as it was at a single point in time while players keep playing
+ * <p>
+ * Every action that changes blocks or players runs between {@link Epoch#enter()} and
+ * {@link Epoch#exit(int)}. Starting a snapshot waits for the actions already running to
+ * finish, holding back new ones only for that long, and then starts a new epoch. The first
+ * time a block or a player is changed in the epoch of a snapshot it keeps a copy of its old
+ * state, which the snapshot reads instead of the live one.
+ */
+class Epoch implements Serializable {
+    /**
+     * counters of running actions, a thread always uses the same one
+     */
+    private static final int STRIPES = 16;
+    /**
+     * ints between two counters, so that they do not share a cache line
+     */
+    private static final int PAD = 16;
+
+    private final AtomicIntegerArray active = new AtomicIntegerArray(STRIPES * PAD);
+    private volatile boolean closed;
+    private volatile int current;
+    /**
+     * the epoch of the snapshot being taken, 0 if there is none
+     */
+    private volatile int copying;
+
+    /**
+     * Start an action, waiting if a snapshot is being started
+     *
+     * @return the counter to pass to {@link Epoch#exit(int)}
+     */
+    int enter() {
+        int stripe = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PAD;
+        while (true) {
+            active.incrementAndGet(stripe);
+            if (!closed) return stripe;
+            active.decrementAndGet(stripe);
+            while (closed) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * End an action
+     *
+     * @param stripe the value returned by {@link Epoch#enter()}
+     */
+    void exit(int stripe) {
+        active.decrementAndGet(stripe);
+    }
+
+    /**
+     * Start a snapshot, only one can be taken at a time
+     *
+     * @return the epoch of the snapshot, to read the state copied for it
+     */
+    int begin() {
+        return begin(null);
+    }
+
+    /**
+     * Start a snapshot, only one can be taken at a time
+     *
+     * @param drained run once the running actions finished, before new ones start, may be null
+     * @return the epoch of the snapshot, to read the state copied for it
+     */
+    synchronized int begin(Runnable drained) {
+        closed = true;
+        try {
+            for (int i = 0; i < STRIPES; i++) {
+                while (active.get(i * PAD) != 0) {
+                    Thread.yield();
+                }
+            }
+            if (drained != null) drained.run();
+            copying = ++current;
+            return copying;
+        } finally {
+            closed = false;
+        }
+    }
+
+    /**
+     * End the snapshot, changes stop being copied
+     */
+    void end() {
+        copying = 0;
+    }
+
+    /**
+     * @return the epoch changes have to be copied for before they are made, 0 if none
+     */
+    int copying() {
+        return copying;
+    }
+}
@@ -0,0 +1,145 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes game events to subscribed clients
+ * <p>
+ * Publishing only queues the event for every subscriber, a small pool of
+ * threads makes the remote calls so a slow client never holds up the game.
+ * Each subscriber has at most one delivery queued or running, which sends
+ * everything that piled up since the previous one in a single call.
+ */
+class EventDispatcher {
+    /**
+     * events kept for a subscriber before block events are dropped for it
+     */
+    static final int MAX_PENDING = 1024;
+    static final int THREADS = 4;
+
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ThreadPoolExecutor executor;
+    private final AtomicBoolean over = new AtomicBoolean();
+
+    /**
+     * A subscribed client with the events it has not been sent yet
+     */
+    private class Subscriber implements Runnable {
+        final GameListener listener;
+        final ConcurrentLinkedQueue<GameEvent> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicBoolean overflow = new AtomicBoolean();
+
+        Subscriber(GameListener listener) {
+            this.listener = listener;
+        }
+
+        void offer(GameEvent event) {
+            if (event.type == GameEvent.DESTROYED && size.get() >= MAX_PENDING) {
+                overflow.set(true);
+            } else {
+                pending.add(event);
+                size.incrementAndGet();
+            }
+            schedule();
+        }
+
+        void schedule() {
+            if (!scheduled.compareAndSet(false, true)) return;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the next event schedules it again
+                scheduled.set(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            ArrayList<GameEvent> batch = new ArrayList<>();
+            GameEvent event;
+            while ((event = pending.poll()) != null) {
+                size.decrementAndGet();
+                if (event.type != GameEvent.DESTROYED) {
+                    // blocks of an earlier layer or game do not matter anymore
+                    batch.clear();
+                }
+                batch.add(event);
+            }
+            if (overflow.getAndSet(false)) {
+                batch.add(new GameEvent(GameEvent.RESYNC, 0, null));
+            }
+            try {
+                if (!batch.isEmpty()) {
+                    listener.onEvents(batch.toArray(new GameEvent[batch.size()]));
+                }
+            } catch (RemoteException e) {
+                System.err.println("Removing unreachable subscriber: " + e.getMessage());
+                subscribers.remove(this);
+            } finally {
+                scheduled.set(false);
+            }
+            if (!pending.isEmpty() || overflow.get()) schedule();
+        }
+    }
+
+    EventDispatcher() {
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(4 * MAX_PENDING), r -> {
+            Thread t = new Thread(r, "event-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param listener the client to send events to
+     * @return true if it was not subscribed already
+     */
+    boolean subscribe(GameListener listener) {
+        for (Subscriber s : subscribers) {
+            if (s.listener.equals(listener)) return false;
+        }
+        return subscribers.add(new Subscriber(listener));
+    }
+
+    /**
+     * @param listener the client to stop sending events to
+     * @return true if it was subscribed
+     */
+    boolean unsubscribe(GameListener listener) {
+        return subscribers.removeIf(s -> s.listener.equals(listener));
+    }
+
+    /**
+     * @return true if any client is subscribed, so that callers can skip building events
+     */
+    boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    /**
+     * Queue an event for every subscriber, the end of the game is only published once
+     *
+     * @param type  the type of the event
+     * @param value the level or the result of the game
+     * @param block the destroyed block or null
+     */
+    void publish(int type, int value, String block) {
+        if (type == GameEvent.GAMEOVER && !over.compareAndSet(false, true)) return;
+        if (subscribers.isEmpty()) return;
+        GameEvent event = new GameEvent(type, value, block);
+        for (Subscriber s : subscribers) {
+            s.offer(event);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A thread that runs tasks, timers and the {@link MuxConnection}s registered
+ * with its selector, so that many clients can share it instead of each
+ * having a thread of its own
+ * <p>
+ * Everything but {@link EventLoop#execute(Runnable)} and {@link EventLoop#shutdown()}
+ * must be called on the loop's own thread, or before it starts.
+ */
+class EventLoop extends Thread {
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private long scheduled;
+    private volatile boolean running = true;
+
+    /**
+     * A task to run once its time has come, timers due at the same time run in
+     * the order they were scheduled
+     */
+    private static class Timer implements Comparable<Timer> {
+        final long at;
+        final long order;
+        final Runnable task;
+
+        Timer(long at, long order, Runnable task) {
+            this.at = at;
+            this.order = order;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            int c = Long.compare(at - o.at, 0);
+            return c != 0 ? c : Long.compare(order, o.order);
+        }
+    }
+
+    /**
+     * @param name the name of the thread
+     * @throws IOException if the selector cannot be opened
+     */
+    EventLoop(String name) throws IOException {
+        super(name);
+        setDaemon(true);
+        selector = Selector.open();
+    }
+
+    /**
+     * @return the selector connections register with
+     */
+    Selector selector() {
+        return selector;
+    }
+
+    /**
+     * Run a task on the loop, can be called from any thread
+     *
+     * @param task the task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != this) selector.wakeup();
+    }
+
+    /**
+     * Run a task on the loop once a time has come
+     *
+     * @param at   when to run the task, from {@link System#nanoTime()}
+     * @param task the task
+     */
+    void schedule(long at, Runnable task) {
+        timers.add(new Timer(at, scheduled++, task));
+    }
+
+    /**
+     * Stop the loop, can be called from any thread
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    run(task);
+                }
+                long now = System.nanoTime();
+                while (!timers.isEmpty() && timers.peek().at - now <= 0) {
+                    run(timers.poll().task);
+                }
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (timers.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.select(Math.max(1, (timers.peek().at - System.nanoTime()) / 1_000_000));
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) ((MuxConnection) key.attachment()).ready(key);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(getName() + " stopped: " + e.getMessage());
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.err.println(getName() + " task failed");
+            e.printStackTrace();
+        }
+    }
+}
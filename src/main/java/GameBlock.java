@@ -1,6 +1,8 @@
 import java.io.Serializable;
 import java.rmi.RemoteException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Blocks make up the game cube
@@ -10,15 +12,72 @@ import java.util.concurrent.atomic.AtomicInteger;
  * a shielder if the previous amount is not 0
  */
 public class GameBlock implements Serializable {
+    /**
+     * The state word holds the hitpoints in the low 32 bits, the shield points
+     * in the next {@link GameBlock#SHIELD_BITS} bits and the generation of the
+     * current shield in the remaining bits. Every change is a single CAS on it.
+     */
+    private static final int SHIELD_BITS = 20;
+    private static final int GEN_BITS = 64 - 32 - SHIELD_BITS;
+    private static final long SHIELD_MASK = (1L << SHIELD_BITS) - 1;
+    private static final long GEN_MASK = (1L << GEN_BITS) - 1;
+    static final int MAX_SHIELD = (int) SHIELD_MASK;
+    /**
+     * updaters instead of atomic objects, so that a block is a single allocation
+     */
+    private static final AtomicLongFieldUpdater<GameBlock> STATE =
+            AtomicLongFieldUpdater.newUpdater(GameBlock.class, "state");
+    private static final AtomicReferenceFieldUpdater<GameBlock, Shield> SHIELD =
+            AtomicReferenceFieldUpdater.newUpdater(GameBlock.class, Shield.class, "shield");
+    private static final AtomicIntegerFieldUpdater<GameBlock> SAVED =
+            AtomicIntegerFieldUpdater.newUpdater(GameBlock.class, "savedEpoch");
+    /**
+     * claims the copy of the state for a snapshot
+     */
+    private static final int SAVING = -1;
+
     private int x;
     private int y;
     private int z;
-    private int hp;
     private final int maxHp;
-    private AtomicInteger shielded;
-    private Player shielder;
-    private transient Object hpLock;
-    private transient Object shieldLock;
+    private volatile long state;
+    /**
+     * The player that placed the shield of the generation stored in the state word
+     */
+    private volatile Shield shield;
+    /**
+     * the layer the block belongs to, told when the block is destroyed
+     */
+    Cube.Layer layer;
+    /**
+     * The epoch of the snapshot for which the saved state and shield were copied
+     * before the first change made in it, see {@link Epoch}
+     */
+    private transient volatile int savedEpoch;
+    private transient long savedState;
+    private transient Shield savedShield;
+
+    /**
+     * A shield placed on the block, it is installed here before it is
+     * published in the state word so that whoever consumes the shield
+     * knows who to credit for it
+     */
+    private static class Shield implements Serializable {
+        final int gen;
+        final int points;
+        final Player shielder;
+
+        Shield(int gen, int points, Player shielder) {
+            this.gen = gen;
+            this.points = points;
+            this.shielder = shielder;
+        }
+    }
+
+    /**
+     * the shield of generation 0 every block starts with
+     */
+    private static final Shield NO_SHIELD = new Shield(0, 0, null);
 
     /**
      * Constructor
@@ -32,20 +91,25 @@ public class GameBlock implements Serializable {
         this.x = x;
         this.y = y;
         this.z = z;
-        this.hp = hp;
         this.maxHp = hp;
-        this.shielded = new AtomicInteger(0);
-        this.shielder = null;
-        this.hpLock = new Object();
-        this.shieldLock = new Object();
+        this.state = pack(hp, 0, 0);
+        this.shield = NO_SHIELD;
     }
 
-    /**
-     * resets the lock to enable deserialization
-     */
-    void resetLock() {
-        this.hpLock = new Object();
-        this.shieldLock = new Object();
+    private static long pack(int hp, int shield, int gen) {
+        return (hp & 0xFFFFFFFFL) | ((long) shield << 32) | ((long) gen << (32 + SHIELD_BITS));
+    }
+
+    private static int hp(long state) {
+        return (int) state;
+    }
+
+    private static int shield(long state) {
+        return (int) ((state >>> 32) & SHIELD_MASK);
+    }
+
+    private static int gen(long state) {
+        return (int) (state >>> (32 + SHIELD_BITS));
     }
 
     /**
@@ -60,6 +124,25 @@ public class GameBlock implements Serializable {
         }
     }
 
+    int level() {
+        return x;
+    }
+
+    int face() {
+        return y;
+    }
+
+    int idx() {
+        return z;
+    }
+
+    /**
+     * @return the id of the block as packed by {@link Cube#blockId(int, int, int)}
+     */
+    int id() {
+        return Cube.blockId(x, y, z);
+    }
+
     String toStringHp() {
         try {
             return x + "_" + y + "_" + z + ":" + getHp();
@@ -69,31 +152,104 @@ public class GameBlock implements Serializable {
     }
 
     /**
-     * Check if the block is shielded and return the amount of shielding
+     * Return the block's hitpoins
      *
-     * @return the amount of shielding available to the block
+     * @return the block's hitpoints
      * @throws RemoteException if rmi fails
      */
-    private int isShielded() throws RemoteException {
-        return this.shielded.get();
+    int getHp() throws RemoteException {
+        return hp(state);
     }
 
     /**
-     * Return the block's hitpoins
+     * @return the shield points left on the block
+     */
+    int shieldPoints() {
+        return shield(state);
+    }
+
+    /**
+     * @return the player credited for the shield points left on the block, or null if there are none
+     */
+    Player shielder() {
+        long current = state;
+        Shield installed = shield;
+        return shield(current) > 0 && installed.gen == gen(current) ? installed.shielder : null;
+    }
+
+    /**
+     * Read the state of the block as it was when a snapshot started
      *
-     * @return the block's hitpoints
-     * @throws RemoteException if rmi fails
+     * @param epoch  the epoch of the snapshot
+     * @param i      where to store the state in the arrays
+     * @param hp     receives the hitpoints
+     * @param points receives the shield points
+     * @return the player credited for the shield points, or null if there are none
      */
-    int getHp() throws RemoteException {
-        int hp;
-        synchronized (hpLock) {
-            hp = this.hp;
+    Player snapshot(int epoch, int i, int[] hp, int[] points) {
+        long current = state;
+        Shield installed = shield;
+        if (savedEpoch == epoch) {
+            current = savedState;
+            installed = savedShield;
         }
-        return hp;
+        hp[i] = hp(current);
+        points[i] = shield(current);
+        return shield(current) > 0 && installed.gen == gen(current) ? installed.shielder : null;
+    }
+
+    /**
+     * Copy the state of the block before its first change while a snapshot is taken
+     */
+    private void preserve() {
+        Cube.Layer l = layer;
+        if (l == null) return;
+        int epoch = l.epoch().copying();
+        if (epoch == 0) return;
+        while (true) {
+            int saved = savedEpoch;
+            if (saved == epoch) return;
+            if (saved != SAVING && SAVED.compareAndSet(this, saved, SAVING)) {
+                savedState = state;
+                savedShield = shield;
+                savedEpoch = epoch;
+                return;
+            }
+            // another player is copying it
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Log a change made to the block, see {@link ActionLog}
+     *
+     * @param hp     the hitpoints given, negative if taken
+     * @param points the shield points given, negative if taken
+     */
+    private void log(int hp, int points) {
+        ActionLog l = layer == null ? null : layer.log();
+        if (l != null) l.block(id(), hp, points);
+    }
+
+    /**
+     * Set the state of the block saved with a game, before anyone plays
+     *
+     * @param hp       hitpoints
+     * @param points   shield points
+     * @param shielder the player credited for the shield points, or null
+     */
+    void restore(int hp, int points, Player shielder) {
+        points = Math.min(Math.max(points, 0), MAX_SHIELD);
+        int gen = (int) ((gen(state) + 1) & GEN_MASK);
+        shield = new Shield(gen, points, shielder);
+        state = pack(hp, points, gen);
     }
 
     /**
      * Attacks the block
+     * <p>
+     * The shield absorbs as much of the damage as it can and its points are
+     * credited to the player that placed it, the rest is taken from the hitpoints.
      *
      * @param dmg the damage that is attempted
      * @return the amount of actual damage done to the block
@@ -101,31 +257,31 @@ public class GameBlock implements Serializable {
      * @throws RemoteException if rmi fails
      */
     int attack(int dmg) throws RemoteException {
-        synchronized (shieldLock) {
-            synchronized (hpLock) {
-                if (this.hp <= 0) return 0;
-                if (this.isShielded() > 0) {
-                    int dmgBlocked = 0;
-                    if (this.isShielded() > 0) {
-                        dmgBlocked = this.shielded.get() >= dmg ? dmg : this.shielded.get();
-                        shielder.gainCredits(dmgBlocked);
-                        shielded.set(shielded.get() - dmgBlocked);
-                        if (shielded.get() == 0) {
-                            shielder = null;
-                        }
-                    }
-                    System.err.println("Damage blocked : " + dmgBlocked);
-                    dmg -= (dmgBlocked);
-                    System.err.println("Damage dealt : " + dmg);
+        preserve();
+        while (true) {
+            long current = state;
+            int hp = hp(current);
+            if (hp <= 0) return 0;
+            int shielded = shield(current);
+            Shield owner = null;
+            int dmgBlocked = 0;
+            if (shielded > 0) {
+                owner = shield;
+                // a newer shield means the state word changed as well, read it again
+                if (owner.gen != gen(current)) continue;
+                dmgBlocked = Math.min(shielded, dmg);
+            }
+            int dealt = Math.min(hp, dmg - dmgBlocked);
+            if (STATE.compareAndSet(this, current, pack(hp - dealt, shielded - dmgBlocked, gen(current)))) {
+                if (dealt > 0 && layer != null) {
+                    layer.changed(this);
+                    if (dealt == hp) layer.destroyed(this);
                 }
-                if (this.hp > dmg) {
-                    this.hp -= dmg;
-                    return dmg;
-                } else {
-                    int ret = this.hp;
-                    this.hp = 0;
-                    return ret;
+                if (dealt > 0 || dmgBlocked > 0) log(-dealt, -dmgBlocked);
+                if (dmgBlocked > 0 && owner.shielder != null) {
+                    owner.shielder.gainCredits(dmgBlocked);
                 }
+                return dealt;
             }
         }
     }
@@ -139,14 +295,18 @@ public class GameBlock implements Serializable {
      * @throws RemoteException if rmi fails
      */
     int repair(int rep) throws RemoteException {
-        synchronized (hpLock) {
-            if (this.hp <= 0) return 0;
-            if (this.hp == maxHp) return 0;
-            int r = (maxHp - this.hp) > rep ? rep : maxHp - this.hp;
-            this.hp = (this.hp + rep) >= maxHp ? maxHp : (this.hp + rep);
-            return r;
-//            repairer.gainCredits((maxHp - this.hp) > rep?rep:maxHp - this.hp);
-//            this.hp = (this.hp+rep)>maxHp?maxHp:(this.hp+rep);
+        preserve();
+        while (true) {
+            long current = state;
+            int hp = hp(current);
+            if (hp <= 0) return 0;
+            if (hp == maxHp) return 0;
+            int r = (maxHp - hp) > rep ? rep : maxHp - hp;
+            if (STATE.compareAndSet(this, current, pack(hp + r, shield(current), gen(current)))) {
+                if (layer != null) layer.changed(this);
+                log(r, 0);
+                return r;
+            }
         }
     }
 
@@ -155,19 +315,42 @@ public class GameBlock implements Serializable {
      *
      * @param p  a player that is trying to shield a block
      * @param sp the shield points to be given to the block
-     * @return true if the shield was placed successfully, false if otherwise
+     * @return the shield points placed on the block, -1 if the block is already shielded
      * @throws RemoteException if rmi fails
      */
     int shield(Player p, int sp) throws RemoteException {
-        synchronized (shieldLock) {
-            if (isShielded() == 0) {
-                shielded.set(sp);
-                shielder = p;
-                return isShielded();
+        sp = Math.min(sp, MAX_SHIELD);
+        if (sp <= 0) return -1;
+        preserve();
+        while (true) {
+            long current = state;
+            if (shield(current) > 0) return -1;
+            int gen = gen(current);
+            Shield installed = shield;
+            if (installed.gen == gen) {
+                // claim the next generation, only one player can do so
+                Shield next = new Shield((int) ((gen + 1) & GEN_MASK), sp, p);
+                if (!SHIELD.compareAndSet(this, installed, next)) continue;
+                publish(next);
+                ActionLog l = layer == null ? null : layer.log();
+                if (l != null) l.shield(id(), sp, p);
+                return sp;
             }
+            // another player claimed it but has not published it yet
+            publish(installed);
         }
-        return -1;
     }
 
-
+    /**
+     * Move the state word to the generation of a claimed shield
+     *
+     * @param claimed a shield that was installed but maybe not yet published
+     */
+    private void publish(Shield claimed) {
+        while (true) {
+            long current = state;
+            if (gen(current) != ((claimed.gen - 1) & GEN_MASK)) return;
+            if (STATE.compareAndSet(this, current, pack(hp(current), claimed.points, claimed.gen))) return;
+        }
+    }
 }
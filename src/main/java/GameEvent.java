@@ -0,0 +1,52 @@
+import java.io.Serializable;
+
+/**
+ * Something that happened in the game that subscribed clients are told about
+ */
+public class GameEvent implements Serializable {
+    /**
+     * the current layer was destroyed, value is the level of the new one
+     */
+    static final int LAYER = 1;
+    /**
+     * a block was destroyed, block is its name
+     */
+    static final int DESTROYED = 2;
+    /**
+     * the game is over, value is 1 if attackers won, -1 if defenders won
+     */
+    static final int GAMEOVER = 3;
+    /**
+     * events were dropped because the client fell behind, it should fetch the targets again
+     */
+    static final int RESYNC = 4;
+
+    final int type;
+    final int value;
+    final String block;
+
+    /**
+     * Constructor
+     *
+     * @param type  the type of the event
+     * @param value the level or the result of the game
+     * @param block the destroyed block or null
+     */
+    GameEvent(int type, int value, String block) {
+        this.type = type;
+        this.value = value;
+        this.block = block;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public String getBlock() {
+        return block;
+    }
+}
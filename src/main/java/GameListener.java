@@ -0,0 +1,17 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * The remote interface a client exports to be told about the game
+ * instead of polling for it, see {@link RemoteState#subscribe(GameListener)}
+ */
+public interface GameListener extends Remote {
+    /**
+     * Receive the events that happened since the last call, in order
+     *
+     * @param events the events, coalesced so that events made obsolete by a
+     *               later one are left out
+     * @throws RemoteException if rmi fails
+     */
+    void onEvents(GameEvent[] events) throws RemoteException;
+}
@@ -1,5 +1,10 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
@@ -7,7 +12,6 @@ import java.rmi.server.UnicastRemoteObject;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -24,76 +28,44 @@ public class GameServer {
     private Registry registry;
 
     /**
-     * ServerThreads are used to run socket requests from clients
+     * First line a client sends to keep its connection open for many requests
      */
-    static class ServerThread implements Runnable {
-        String line = null;
-        BufferedReader is = null;
-        PrintWriter os = null;
-        Socket s = null;
-        RemoteState state = null;
+    static final String SESSION = "SESSION";
 
-        /**
-         * create a thread with a given socket and game state
-         *
-         * @param s  socket
-         * @param st game state
-         */
-        ServerThread(Socket s, RemoteState st) {
-            this.s = s;
-            this.state = st;
-        }
-
-        public void run() {
-
-            /*
-              Connect to socket
-             */
-
-            try {
-                is = new BufferedReader(new InputStreamReader(s.getInputStream()));
-                os = new PrintWriter(s.getOutputStream());
-            } catch (IOException e) {
-                System.out.println("IO error in server thread");
-                e.printStackTrace();
-            }
+    /**
+     * Ends a session opened with {@link GameServer#SESSION}
+     */
+    static final String CLOSE = "CLOSE";
 
-            /*
-             * Read/Parse Command
-             */
+    /**
+     * Requests in a session may start with this character followed by a tag and a space,
+     * e.g. "#7 GETEND", the reply to such a request starts with the same tag
+     */
+    static final char TAG = '#';
 
-            try {
-                line = is.readLine();
-//                System.err.println(line);
-                String s = state.parseRequest(line);
-//                System.err.println("Response -> " + s);
-                os.println(s);
-                os.flush();
-            } catch (IOException e) {
-                System.out.println("IO Error/ Client " + line + " terminated abruptly");
-                e.printStackTrace();
-            } catch (NullPointerException e) {
-//                line = this.getName(); //reused String line for getting thread name
-                System.out.println("Client " + line + " Closed");
-            } finally {
-                try {
-//                    System.err.println("Connection Closing");
-                    if (is != null) {
-                        is.close();
-//                        System.out.println(" Socket Input Stream Closed");
-                    }
-                    if (os != null)
-                        os.close();
-//                        System.out.println("ppoppp");
-                    if (s != null) {
-                        s.close();
-//                        System.out.println("Socket Closed");
-                    }
-                } catch (IOException e) {
-                    System.out.println("Socket Close Error");
-                }
-            }
+    /**
+     * Terminate a reply with an empty line so that a client reading a session
+     * knows where the reply ends without the connection being closed
+     * <p>
+     * A client that sends a single request gets a single reply and the
+     * connection is closed. A client that opens with {@link GameServer#SESSION}
+     * can send any number of requests over the same connection, each reply
+     * is terminated by an empty line, until it sends {@link GameServer#CLOSE}
+     * or disconnects. Requests can be pipelined: several of them sent in one
+     * write are run in order and their replies are sent back together.
+     *
+     * @param reply a reply from {@link RemoteState#parseRequest(String)}
+     * @return the reply followed by an empty line
+     */
+    static String frame(String reply) {
+        int end = reply.length();
+        while (end > 0 && Character.isWhitespace(reply.charAt(end - 1))) {
+            end--;
+        }
+        if (end == 0) {
+            return "\r\n";
         }
+        return reply.substring(0, end) + "\r\n\r\n";
     }
 
     /**
@@ -202,6 +174,14 @@ public class GameServer {
                 registry = null;
             }
         }
+        ActionLog log = state.cube().log;
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.printf("unable to close the action log: %s%n", e.getMessage());
+            }
+        }
     }
 
     /**
@@ -219,7 +199,34 @@ public class GameServer {
     }
 
     /**
-     * Command line program to create a new state or load a saved state from a serialized object
+     * Start logging the changes to the game in a new action log. The game is saved first, to the
+     * snapshot it was loaded from or else to the base snapshot of the game, and the new log only
+     * replaces the old one after that, so a crash at any point leaves a snapshot and a log that
+     * go together. An old log is only replaced when the game was loaded from its snapshot.
+     *
+     * @param state    the game
+     * @param name     the name of the game
+     * @param snapshot the snapshot the game was loaded from, or null
+     * @throws IOException if the log or the snapshot cannot be written, or the old log would be lost
+     */
+    private static void startLog(LocalState state, String name, Path snapshot) throws IOException {
+        Path path = ActionLog.path(name);
+        long old = ActionLog.id(path);
+        if (old != 0 && (snapshot == null || GameSnapshot.logId(snapshot) != old)) {
+            throw new IOException(path + " holds changes to a game that was not loaded, load its snapshot ("
+                    + ActionLog.base(name) + " unless a later one was saved) or remove it");
+        }
+        Path fresh = Paths.get(path + ".tmp");
+        ActionLog log = ActionLog.create(fresh, new SecureRandom().nextLong() | 1);
+        state.setLog(log);
+        GameSnapshot.save(state, snapshot != null ? snapshot : ActionLog.base(name));
+        Files.move(fresh, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.err.println("Logging changes to " + path);
+    }
+
+    /**
+     * Command line program to create a new state or load a saved state from a snapshot
+     * written by {@link GameSnapshot}
      *
      * @param args Commandline arguments:
      *             port
@@ -227,7 +234,7 @@ public class GameServer {
      *             cube_size
      *             block_hitpoints
      *             time_limit(seconds)
-     *             (serialized_state)
+     *             (saved_state)
      * @throws IOException if socket communication fails
      */
     public static void main(String[] args) throws IOException {
@@ -243,31 +250,37 @@ public class GameServer {
         if (args.length == 5) {
             state = new LocalState(name, size, bhp, tl);
         } else {
-            ObjectInputStream objectinputstream = null;
+            Path saved = Paths.get(args[5]);
+            if (!GameSnapshot.isSnapshot(saved)) {
+                System.err.println("Could not load state from " + args[5] + ", it is not a saved game"
+                        + " (games saved as serialized objects by older versions cannot be loaded), exiting");
+                System.exit(0);
+            }
             try {
-                FileInputStream streamIn = new FileInputStream(args[5]);
-                objectinputstream = new ObjectInputStream(streamIn);
                 System.err.println("Loading state from " + args[5]);
-                state = (LocalState) objectinputstream.readObject();
-                System.err.println("Resetting locks");
-                state.reset();
-            } catch (Exception e) {
+                long start = System.nanoTime();
+                state = GameSnapshot.load(saved, ActionLog.path(name));
+                System.err.format("Loaded %d blocks in %.3f seconds%n", state.cube().size(), (System.nanoTime() - start) / 1e9);
+            } catch (IOException e) {
                 System.err.println("Could not load state from " + args[5] + ", exiting");
                 e.printStackTrace();
                 System.exit(0);
-            } finally {
-                if (objectinputstream != null) {
-                    objectinputstream.close();
-                }
             }
         }
 
+        try {
+            startLog(state, name, args.length > 5 ? Paths.get(args[5]) : null);
+        } catch (IOException e) {
+            System.err.println("Could not start the action log, changes will not be logged");
+            e.printStackTrace();
+        }
+
         GameServer server = new GameServer(state);
+        // before the socket server, which only returns once it is closed, and the admin menu, which exits
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
         try {
             port = server.start(port);
 
-            ExecutorService clientExecutor = Executors.newFixedThreadPool(16);
-
             AdminMenu menu = new AdminMenu(state);
             menu.start();
 
@@ -285,21 +298,8 @@ public class GameServer {
             }
 
 
-            Socket s;
-            ServerSocket serverSocket = new ServerSocket(port + 1);
-            while (true) {
-                try {
-                    s = serverSocket.accept();
-//                    ServerThread st = new ServerThread(s);
-//                    st.start();
-                    clientExecutor.submit(new ServerThread(s, state));
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    System.err.println("Connection error");
-                    break;
-                }
-            }
-            clientExecutor.shutdown();
+            NioServer socketServer = new NioServer(state, port + 1, Runtime.getRuntime().availableProcessors());
+            socketServer.run();
         } catch (RemoteException re) {
             Throwable t = re.getCause();
             if (t instanceof java.net.ConnectException) {
@@ -311,7 +311,5 @@ public class GameServer {
             }
             UnicastRemoteObject.unexportObject(state, false);
         }
-
-        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
     }
 }
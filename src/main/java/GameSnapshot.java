@@ -0,0 +1,282 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Saves a game to a compact binary file and loads it back
+ * <p>
+ * The file holds a header with the shape of the cube and the time left,
+ * the players as fixed records and, for every level of the cube, the
+ * hitpoints, shield points and shielders of its blocks as arrays of ints
+ * indexed by the idx of the blocks. Everything is big endian.
+ * The header also tells where the {@link ActionLog} was when the snapshot
+ * was taken, the changes logged after that are replayed when it is loaded.
+ * <pre>
+ * int MAGIC, int VERSION
+ * int side, int blockHp, long timeLeft, name, long log id, long log position
+ * int players, then for each: byte role, int score, int credits, int[5] stats, name
+ * int levels, then for each: int length, int[length] hp, int[length] shield, int[length] shielder
+ * </pre>
+ * Names are a short length followed by UTF-8 bytes, a shielder is the index
+ * of a player in the file or -1.
+ */
+class GameSnapshot {
+    static final int MAGIC = 0x43554245;
+    static final int VERSION = 2;
+
+    private GameSnapshot() {
+    }
+
+    /**
+     * Save the game as it was at one point in time while it keeps being played,
+     * the file is replaced only once it was written completely
+     *
+     * @param state the game to save
+     * @param path  the file to write
+     * @throws IOException if the file cannot be written
+     */
+    static void save(LocalState state, Path path) throws IOException {
+        Cube cube = state.cube();
+        ActionLog log = cube.log;
+        synchronized (cube.epoch) {
+            ByteBuffer buf;
+            // the changes logged up to here are in the snapshot, the later ones are not
+            long[] position = new long[1];
+            int epoch = cube.epoch.begin(log == null ? null : () -> position[0] = log.position());
+            try {
+                buf = write(state, cube, epoch, log == null ? 0 : log.id(), position[0]);
+            } finally {
+                // changes stop being copied, the rest only touches the encoded game
+                cube.epoch.end();
+            }
+            buf.flip();
+
+            Path tmp = Paths.get(path + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) {
+                    ch.write(buf);
+                }
+                ch.force(false);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Encode the game as it was when the snapshot of an epoch started
+     *
+     * @param state the game to save
+     * @param cube  the cube of the game
+     * @param epoch the epoch of the snapshot
+     * @param logId the id of the action log, 0 if there is none
+     * @param logPosition the position of the action log when the snapshot started
+     * @return the encoded game, ready to be written
+     * @throws IOException if the game is too large
+     */
+    private static ByteBuffer write(LocalState state, Cube cube, int epoch, long logId, long logPosition)
+            throws IOException {
+        long timeLeft = state.timeLeft();
+        ArrayList<Player> players = new ArrayList<>(state.players());
+        IdentityHashMap<Player, Integer> index = new IdentityHashMap<>();
+        byte[] name = state.name.getBytes(StandardCharsets.UTF_8);
+        byte[][] names = new byte[players.size()][];
+        long length = 4 + 4 + 4 + 4 + 8 + 2 + name.length + 8 + 8 + 4 + 4;
+        for (int i = 0; i < players.size(); i++) {
+            index.put(players.get(i), i);
+            names[i] = players.get(i).unameToString().getBytes(StandardCharsets.UTF_8);
+            length += 1 + 4 + 4 + 5 * 4 + 2 + names[i].length;
+        }
+        for (int level = 1; level <= cube.levels(); level++) {
+            length += 4 + 3 * 4L * cube.level(level).length;
+        }
+        if (length > Integer.MAX_VALUE) throw new IOException("Game too large to save");
+
+        ByteBuffer buf = ByteBuffer.allocateDirect((int) length);
+        buf.putInt(MAGIC).putInt(VERSION);
+        buf.putInt(cube.side()).putInt(cube.blockHp()).putLong(timeLeft);
+        putName(buf, name);
+        buf.putLong(logId).putLong(logPosition);
+        buf.putInt(players.size());
+        for (int i = 0; i < players.size(); i++) {
+            Player p = players.get(i);
+            // score, credits and stats
+            int[] record = p.snapshot(epoch);
+            buf.put((byte) (p instanceof Attacker ? 1 : 0));
+            for (int value : record) {
+                buf.putInt(value);
+            }
+            putName(buf, names[i]);
+        }
+        buf.putInt(cube.levels());
+        for (int level = 1; level <= cube.levels(); level++) {
+            GameBlock[] blocks = cube.level(level);
+            int[] hp = new int[blocks.length];
+            int[] shield = new int[blocks.length];
+            int[] shielder = new int[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                GameBlock b = blocks[i];
+                shielder[i] = -1;
+                if (b == null) continue;
+                Player p = b.snapshot(epoch, i, hp, shield);
+                if (p != null && index.containsKey(p)) shielder[i] = index.get(p);
+            }
+            buf.putInt(blocks.length);
+            putInts(buf, hp);
+            putInts(buf, shield);
+            putInts(buf, shielder);
+        }
+        return buf;
+    }
+
+    /**
+     * @param path a file
+     * @return true if the file starts like a saved game
+     */
+    static boolean isSnapshot(Path path) {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4);
+            return ch.read(head) == 4 && head.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param path a saved game
+     * @return the id of the action log written while the game was saved, 0 if there is none
+     * @throws IOException if the file cannot be read or is not a saved game
+     */
+    static long logId(Path path) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        try {
+            if (buf.getInt() != MAGIC) throw new IOException(path + " is not a saved game");
+            if (buf.getInt() < 2) return 0;
+            // side, blockHp and timeLeft, then the name
+            buf.position(buf.position() + 16);
+            getName(buf);
+            return buf.getLong();
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt saved game " + path, e);
+        }
+    }
+
+    /**
+     * Load a saved game
+     *
+     * @param path the file to read
+     * @return the game, ready to be played
+     * @throws IOException if the file cannot be read or is not a saved game
+     */
+    static LocalState load(Path path) throws IOException {
+        return load(path, null);
+    }
+
+    /**
+     * Load a saved game and replay the changes logged after it was saved
+     *
+     * @param path the file to read
+     * @param log  the action log written while the game was played, null not to replay it
+     * @return the game, ready to be played
+     * @throws IOException if the file cannot be read or is not a saved game
+     */
+    static LocalState load(Path path, Path log) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        try {
+            if (buf.getInt() != MAGIC) throw new IOException(path + " is not a saved game");
+            int version = buf.getInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported saved game version " + version);
+            int side = buf.getInt();
+            int blockHp = buf.getInt();
+            long timeLeft = buf.getLong();
+            String name = getName(buf);
+            long logId = 0;
+            long logPosition = 0;
+            if (version >= 2) {
+                logId = buf.getLong();
+                logPosition = buf.getLong();
+            }
+
+            Cube cube = new Cube(side, blockHp, false);
+            LocalState state = new LocalState(name, cube, timeLeft);
+
+            Player[] players = new Player[buf.getInt()];
+            int[] stats = new int[5];
+            for (int i = 0; i < players.length; i++) {
+                int role = buf.get();
+                int score = buf.getInt();
+                int credits = buf.getInt();
+                for (int s = 0; s < stats.length; s++) {
+                    stats[s] = buf.getInt();
+                }
+                players[i] = state.restore(getName(buf), role, score, credits, stats);
+            }
+
+            int levels = buf.getInt();
+            if (levels != cube.levels()) throw new IOException("Saved game has " + levels + " levels");
+            for (int level = 1; level <= levels; level++) {
+                GameBlock[] blocks = cube.level(level);
+                int length = buf.getInt();
+                if (length != blocks.length) throw new IOException("Saved game does not match level " + level);
+                int[] hp = getInts(buf, length);
+                int[] shield = getInts(buf, length);
+                int[] shielder = getInts(buf, length);
+                for (int i = 0; i < length; i++) {
+                    if (blocks[i] == null) continue;
+                    int s = shielder[i];
+                    blocks[i].restore(hp[i], shield[i], s >= 0 && s < players.length ? players[s] : null);
+                }
+            }
+            cube.restored();
+            if (log != null && logId != 0) {
+                int records = ActionLog.replay(log, logId, logPosition, state);
+                if (records < 0) {
+                    System.err.println("No action log of " + path + " in " + log);
+                } else {
+                    System.err.println("Replayed " + records + " changes from " + log);
+                }
+            }
+            return state;
+        } catch (RuntimeException e) {
+            // a truncated file underflows the buffer
+            throw new IOException("Corrupt saved game " + path, e);
+        }
+    }
+
+    private static void putName(ByteBuffer buf, byte[] name) {
+        buf.putShort((short) name.length).put(name);
+    }
+
+    private static String getName(ByteBuffer buf) {
+        byte[] name = new byte[buf.getShort() & 0xFFFF];
+        buf.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static void putInts(ByteBuffer buf, int[] values) {
+        buf.asIntBuffer().put(values);
+        buf.position(buf.position() + 4 * values.length);
+    }
+
+    private static int[] getInts(ByteBuffer buf, int length) {
+        int[] values = new int[length];
+        buf.asIntBuffer().get(values);
+        buf.position(buf.position() + 4 * length);
+        return values;
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The latencies of the requests the bots of one transport make, by kind of request
+ * <p>
+ * Every thread records to histograms of its own, so recording takes no lock and
+ * no atomic operation. The histograms of all the threads are added up once the
+ * bots are done.
+ */
+class Latencies {
+    /**
+     * kinds of requests, the primary action of a bot is its role
+     */
+    static final int REPAIR = 0;
+    static final int ATTACK = 1;
+    /**
+     * getting the targets or the changes to them
+     */
+    static final int TARGETS = 2;
+    /**
+     * asking whether the game is over on its own
+     */
+    static final int END = 3;
+    static final String[] OPS = {"REPAIR", "ATTACK", "TARGETS", "END"};
+    static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    final String transport;
+    private final ConcurrentLinkedQueue<LatencyHistogram[]> threads = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<LatencyHistogram[]> local = ThreadLocal.withInitial(() -> {
+        LatencyHistogram[] h = new LatencyHistogram[OPS.length];
+        threads.add(h);
+        return h;
+    });
+
+    /**
+     * @param transport the name of the transport in the results
+     */
+    Latencies(String transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Record the latency of a request that just completed
+     *
+     * @param op    the kind of request
+     * @param start when the request was sent, from {@link System#nanoTime()}
+     * @return the latency in nanoseconds
+     */
+    long record(int op, long start) {
+        long latency = System.nanoTime() - start;
+        LatencyHistogram[] h = local.get();
+        if (h[op] == null) h[op] = new LatencyHistogram();
+        h[op].record(latency);
+        return latency;
+    }
+
+    /**
+     * Add up the latencies recorded by all the threads, call once they are done
+     *
+     * @param op the kind of request
+     * @return the latencies of that kind of request
+     */
+    LatencyHistogram merged(int op) {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram[] h : threads) {
+            if (h[op] != null) merged.add(h[op]);
+        }
+        return merged;
+    }
+
+    /**
+     * @param out receives the header of {@link Latencies#write(Writer)}
+     * @throws IOException if the writer fails
+     */
+    static void writeHeader(Writer out) throws IOException {
+        StringBuilder s = new StringBuilder("transport,op,count,mean_us");
+        for (double p : PERCENTILES) {
+            s.append(",p").append(p == (long) p ? String.valueOf((long) p) : String.valueOf(p)).append("_us");
+        }
+        out.write(s.append(",max_us\n").toString());
+    }
+
+    /**
+     * Write one comma separated line per kind of request that was made,
+     * with the number of requests and the latencies in microseconds
+     *
+     * @param out the results file
+     * @throws IOException if the writer fails
+     */
+    void write(Writer out) throws IOException {
+        for (int op = 0; op < OPS.length; op++) {
+            LatencyHistogram h = merged(op);
+            if (h.count() == 0) continue;
+            StringBuilder s = new StringBuilder();
+            s.append(transport).append(',').append(OPS[op]).append(',').append(h.count())
+                    .append(',').append(micros(h.mean()));
+            for (double p : PERCENTILES) {
+                s.append(',').append(micros(h.percentile(p)));
+            }
+            out.write(s.append(',').append(micros(h.max())).append('\n').toString());
+        }
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e3);
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Counts latencies in buckets that are exact below 256 nanoseconds and less than
+ * 1% wide above, like an HdrHistogram with two significant digits
+ * <p>
+ * A histogram is recorded by a single thread without any synchronization, the
+ * histograms of several threads are added together once they are done.
+ */
+class LatencyHistogram {
+    /**
+     * buckets per power of two
+     */
+    private static final int SUB_BITS = 7;
+    private static final int SUB = 1 << SUB_BITS;
+    /**
+     * longer latencies, over a minute, are counted in the last bucket
+     */
+    private static final long HIGHEST = (1L << 36) - 1;
+
+    private final int[] counts = new int[index(HIGHEST) + 1];
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * @param value a latency in nanoseconds
+     * @return its bucket
+     */
+    private static int index(long value) {
+        if (value < SUB) return (int) value;
+        int octave = 64 - SUB_BITS - Long.numberOfLeadingZeros(value);
+        return (octave << SUB_BITS) + (int) (value >>> (octave - 1)) - SUB;
+    }
+
+    /**
+     * @param index a bucket
+     * @return the highest latency counted in it
+     */
+    private static long highest(int index) {
+        if (index < 2 * SUB) return index;
+        int octave = index >>> SUB_BITS;
+        long lowest = (long) ((index & (SUB - 1)) + SUB) << (octave - 1);
+        return lowest + (1L << (octave - 1)) - 1;
+    }
+
+    /**
+     * Count a latency
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[index(Math.min(nanos, HIGHEST))]++;
+        count++;
+        sum += nanos;
+        if (nanos > max) max = nanos;
+    }
+
+    /**
+     * Add the latencies counted by another histogram
+     *
+     * @param other a histogram no longer recorded to
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return the number of latencies counted
+     */
+    long count() {
+        return count;
+    }
+
+    /**
+     * @return the mean latency in nanoseconds, 0 if none were counted
+     */
+    long mean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @return the highest latency counted in nanoseconds
+     */
+    long max() {
+        return max;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in nanoseconds that the given percentage of the latencies
+     * counted are at or below, 0 if none were counted
+     */
+    long percentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highest(i), max);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,100 @@
+import java.rmi.RemoteException;
+
+/**
+ * The players with the highest scores, kept in order as their scores change
+ * <p>
+ * Scores only grow, so a player whose new score is below the lowest one on the
+ * board cannot be on it and is turned away without locking. Everyone else
+ * updates the board under its lock, and the rendered board is only rebuilt
+ * after something on it changed.
+ */
+class Leaderboard {
+    static final int SIZE = 10;
+
+    private final Player[] players = new Player[SIZE];
+    private final String[] names = new String[SIZE];
+    private final int[] scores = new int[SIZE];
+    private int size;
+    /**
+     * lowest score on a full board, a lower score cannot get on it
+     */
+    private volatile int threshold = Integer.MIN_VALUE;
+    private volatile String rendered = "";
+
+    /**
+     * Start tracking a player's score
+     *
+     * @param p the player
+     * @throws RemoteException if rmi fails
+     */
+    void add(Player p) throws RemoteException {
+        p.board = this;
+        changed(p, p.getScore());
+    }
+
+    /**
+     * Called by a player after its score changed
+     *
+     * @param p     the player
+     * @param score the new score of the player
+     * @throws RemoteException if rmi fails
+     */
+    void changed(Player p, int score) throws RemoteException {
+        if (score < threshold) return;
+        synchronized (this) {
+            int i = 0;
+            while (i < size && players[i] != p) i++;
+            if (i == size) {
+                if (size < SIZE) {
+                    size++;
+                } else if (score > scores[SIZE - 1]) {
+                    i = SIZE - 1;
+                } else {
+                    return;
+                }
+                players[i] = p;
+                names[i] = p.unameToString();
+            } else if (score <= scores[i]) {
+                // an older score reported late
+                return;
+            }
+            scores[i] = score;
+            // move up past the lower scores, ties keep their order
+            for (; i > 0 && scores[i - 1] < score; i--) {
+                swap(i, i - 1);
+            }
+            if (size == SIZE) threshold = scores[SIZE - 1];
+            rendered = null;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Player p = players[i];
+        players[i] = players[j];
+        players[j] = p;
+        String n = names[i];
+        names[i] = names[j];
+        names[j] = n;
+        int s = scores[i];
+        scores[i] = scores[j];
+        scores[j] = s;
+    }
+
+    /**
+     * @return the players on the board formatted as "RANK: USERNAME SCORE", one per line
+     */
+    String render() {
+        String r = rendered;
+        if (r == null) {
+            synchronized (this) {
+                StringBuilder s = new StringBuilder();
+                for (int i = 0; i < size; i++) {
+                    s.append(i + 1).append(": ").append(names[i]).append(" ").append(scores[i]).append("\n");
+                }
+                r = s.toString();
+                rendered = r;
+            }
+        }
+        return r;
+    }
+}
@@ -2,31 +2,58 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The local state keeps track of the players, and the status of the cube
  */
 public class LocalState extends UnicastRemoteObject implements RemoteState, Serializable {
+    /**
+     * longest username in UTF-8 bytes, saved games and the action log store names with a 16 bit length
+     */
+    static final int MAX_NAME = 1024;
+    /**
+     * most primary actions a player can have waiting for its cooldown
+     */
+    static final int MAX_WAITING = 16;
+
     final String name;
 
     private final Cube cube;
     private long start;
     private long timeLeft;
     private long timeLimit;
+    /**
+     * guards the growth of the player id table
+     */
     private transient Object playerLock;
 
     private ConcurrentHashMap<String, Player> players;
     private ConcurrentHashMap<String, Attacker> attackers;
     private ConcurrentHashMap<String, Defender> defenders;
-    private ArrayList<Player> leaderboard;
+    private transient Leaderboard leaderboard;
+    private transient ConcurrentHashMap<String, Integer> playerIds;
+    private transient volatile Player[] playerTable;
+    private transient int playerCount;
+    private transient EventDispatcher events;
+    /**
+     * runs primary actions that came in before their player's cooldown was over
+     */
+    private transient volatile ActionScheduler scheduler;
+    private transient volatile boolean queueActions;
 
     private boolean saved = false;
 
@@ -42,54 +69,39 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
      * @throws RemoteException if rmi fails
      */
     LocalState(String name, int size, int blockHp, int timeLimit) throws RemoteException {
+        this(name, new Cube(size, blockHp), (long) (timeLimit * 1e9));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param name      server name
+     * @param cube      the cube to play on
+     * @param timeLimit time limit in nanoseconds
+     * @throws RemoteException if rmi fails
+     */
+    LocalState(String name, Cube cube, long timeLimit) throws RemoteException {
         synchronized (this) {
             this.name = name;
-            this.cube = new Cube(size, blockHp);
+            this.cube = cube;
 
             this.players = new ConcurrentHashMap<>();
             this.attackers = new ConcurrentHashMap<>();
             this.defenders = new ConcurrentHashMap<>();
-            this.leaderboard = new ArrayList<>();
+            this.leaderboard = new Leaderboard();
 
             this.playerLock = new Object();
+            this.playerIds = new ConcurrentHashMap<>();
+            this.events = new EventDispatcher();
+            this.cube.events = events;
+            this.playerTable = new Player[16];
             this.start = System.nanoTime();
-            this.timeLimit = (long) (timeLimit * 1e9);
+            this.timeLimit = timeLimit;
 
             this.currentState = new AtomicInteger(-2);
         }
     }
 
-    /**
-     * resets the transient fields of the different components
-     * to enable deserialization
-     *
-     * @throws RemoteException if rmi fails
-     */
-    void reset() throws RemoteException {
-        System.err.println("Resetting time");
-        timeLimit = timeLeft;
-        start = System.nanoTime();
-        System.err.println("Resetting player lock");
-        this.playerLock = new Object();
-        System.err.println("Resetting block locks");
-        for (GameBlock gb : cube.cubeMap.values()) {
-            gb.resetLock();
-        }
-        System.err.println("Resetting player locks");
-        for (Player p : players.values()) {
-            p.resetLocks();
-        }
-        System.err.println("Resetting defender locks");
-        for (Defender d : defenders.values()) {
-            d.logout();
-            d.resetLock();
-        }
-        System.err.println("Resetting attacker locks");
-        for (Attacker a : attackers.values()) {
-            a.logout();
-        }
-    }
-
     void savePoints() throws IOException {
         if (!saved) {
             saved = true;
@@ -104,6 +116,65 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
         }
     }
 
+    /**
+     * @return the cube played on
+     */
+    Cube cube() {
+        return cube;
+    }
+
+    /**
+     * @return every registered player
+     */
+    Collection<Player> players() {
+        return players.values();
+    }
+
+    /**
+     * @return the time left in the game in nanoseconds
+     */
+    long timeLeft() {
+        return timeLimit - (System.nanoTime() - start);
+    }
+
+    /**
+     * Add a player saved with a game
+     *
+     * @param username the username of the player
+     * @param role     the role of the player
+     * @param score    the score of the player
+     * @param credits  the credits of the player
+     * @param stats    the stats of the player, see {@link Player#stats()}
+     * @return the player, or null if the username was taken
+     * @throws RemoteException if rmi fails
+     */
+    Player restore(String username, int role, int score, int credits, int[] stats) throws RemoteException {
+        if (!add(username, role, score, credits, stats[0], stats[1], stats[2])) return null;
+        Player p = players.get(username);
+        p.setStats(stats);
+        return p;
+    }
+
+    /**
+     * Start logging the changes to the game, see {@link ActionLog}
+     *
+     * @param log the log to write to, or null to stop logging
+     */
+    void setLog(ActionLog log) {
+        cube.log = log;
+        for (Player p : players.values()) {
+            p.log = log;
+        }
+    }
+
+    /**
+     * @param username the username of a player
+     * @return the player, or null if nobody registered with it
+     */
+    Player getPlayer(String username) {
+        return players.get(username);
+    }
+
     /**
      * If the given username is already registered return the player if the player is not logged on, null otherwise
      * If the given username is not already registered register the username and return it
@@ -113,20 +184,54 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
      * @throws RemoteException if rmi fail
      */
     public RemotePlayer login(String username) throws RemoteException {
-        synchronized (playerLock) {
-            try {
-                if (players.get(username).login()) {
-                    System.err.println("Success");
-                    System.err.println(players.get(username).unameToString());
-                    return players.get(username);
-                }
-            } catch (Exception e) {
-                return null;
+        try {
+            Player p = players.get(username);
+            if (p.login()) {
+                System.err.println("Success");
+                System.err.println(p.unameToString());
+                return p;
             }
+        } catch (Exception e) {
+            return null;
         }
         return null;
     }
 
+    /**
+     * Return the id of a registered player, the id is assigned the first time it is asked for
+     * and stays the same while the server runs
+     *
+     * @param username the name to look up
+     * @return the id of the player, -1 if the player is not registered
+     */
+    int playerId(String username) {
+        Player p = players.get(username);
+        if (p == null) return -1;
+        return playerIds.computeIfAbsent(username, u -> {
+            synchronized (playerLock) {
+                Player[] table = playerTable;
+                int id = playerCount++;
+                if (id == table.length) {
+                    table = Arrays.copyOf(table, table.length * 2);
+                }
+                table[id] = p;
+                playerTable = table;
+                return id;
+            }
+        });
+    }
+
+    /**
+     * Return the player with the given id
+     *
+     * @param id an id returned by {@link LocalState#playerId(String)}
+     * @return the player, or null if there is none with that id
+     */
+    private Player player(int id) {
+        Player[] table = playerTable;
+        return id >= 0 && id < table.length ? table[id] : null;
+    }
+
     /**
      * Return the role of a given player
      *
@@ -148,9 +253,10 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
      * @return true if the player was successfully logged out, false otherwise
      * @throws RemoteException if rmi fails
      */
-    public synchronized boolean logout(String username) throws RemoteException {
-        if (players.get(username) != null) {
-            players.get(username).logout();
+    public boolean logout(String username) throws RemoteException {
+        Player p = players.get(username);
+        if (p != null) {
+            p.logout();
             return true;
         }
         return false;
@@ -164,25 +270,12 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
      * @return the player if it was successfully created, null otherwise
      * @throws RemoteException if rmi fails
      */
-    public synchronized boolean register(String username, int role) throws RemoteException {
-        synchronized (playerLock) {
-            if (players.get(username) == null) {
-                if (role == 1) {
-                    System.err.println("Registered attacker " + username);
-                    Attacker atk = new Attacker(username, 0, 0);
-                    players.putIfAbsent(username, atk);
-                    attackers.putIfAbsent(username, atk);
-                } else {
-                    System.err.println("Registered defender " + username);
-                    Defender def = new Defender(username, 0, 0);
-                    players.putIfAbsent(username, def);
-                    defenders.putIfAbsent(username, def);
-                }
-                leaderboard.add(players.get(username));
-                return true;
-            }
-            return false;
-        }
+    public boolean register(String username, int role) throws RemoteException {
+        boolean added = role == 1
+                ? add(username, role, () -> new Attacker(username, 0, 0))
+                : add(username, role, () -> new Defender(username, 0, 0));
+        if (added) System.err.println((role == 1 ? "Registered attacker " : "Registered defender ") + username);
+        return added;
     }
 
     /**
@@ -201,24 +294,98 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
     @Override
     public boolean register(String username, int role, int score, int credits, int primary, int secondary, int items)
             throws RemoteException {
-        synchronized (playerLock) {
-            if (players.get(username) == null) {
-                if (role == 1) {
-                    System.err.println("Registered attacker " + username);
-                    Attacker atk = new Attacker(username, score, credits, primary, secondary, items);
-                    players.putIfAbsent(username, atk);
-                    attackers.putIfAbsent(username, atk);
-                } else {
-                    System.err.println("Registered defender " + username);
-                    Defender def = new Defender(username, score, credits, primary, secondary, items);
-                    players.putIfAbsent(username, def);
-                    defenders.putIfAbsent(username, def);
-                }
-                leaderboard.add(players.get(username));
-                return true;
+        boolean added = add(username, role, score, credits, primary, secondary, items);
+        if (added) System.err.println((role == 1 ? "Registered attacker " : "Registered defender ") + username);
+        return added;
+    }
+
+    /**
+     * Register many players at once, logging a single line for all of them
+     *
+     * @param registrations the players formatted as USERNAME-ROLE-PRIMARY-SECONDARY-ITEMS
+     * @return for each player true if it was registered, false if the username was taken or malformed
+     * @throws RemoteException if rmi fails
+     */
+    @Override
+    public boolean[] registerBatch(String[] registrations) throws RemoteException {
+        boolean[] res = new boolean[registrations.length];
+        int added = 0;
+        for (int i = 0; i < registrations.length; i++) {
+            String[] tokens = registrations[i].split("-");
+            if (tokens.length != 5) continue;
+            try {
+                res[i] = add(tokens[0], Integer.parseInt(tokens[1]), 0, 0,
+                        Integer.parseInt(tokens[2]), Integer.parseInt(tokens[3]), Integer.parseInt(tokens[4]));
+            } catch (NumberFormatException e) {
+                continue;
             }
-            return false;
+            if (res[i]) added++;
         }
+        System.err.println("Registered " + added + " of " + registrations.length + " players");
+        return res;
+    }
+
+    /**
+     * Add an attacker or a defender with the given stats
+     */
+    private boolean add(String username, int role, int score, int credits, int primary, int secondary, int items)
+            throws RemoteException {
+        if (role == 1) {
+            return add(username, role, () -> new Attacker(username, score, credits, primary, secondary, items));
+        }
+        return add(username, role, () -> new Defender(username, score, credits, primary, secondary, items));
+    }
+
+    /**
+     * Creates a player
+     */
+    private interface PlayerFactory {
+        Player create() throws RemoteException;
+    }
+
+    /**
+     * Add a player unless the username is taken or longer than {@link LocalState#MAX_NAME},
+     * only registrations of the same username wait for each other
+     *
+     * @param username the username of the new player
+     * @param role     1 to add the player to the attackers, 0 to the defenders
+     * @param factory  creates the player, only called if the username is free
+     * @return true if the player was added
+     * @throws RemoteException if rmi fails
+     */
+    private boolean add(String username, int role, PlayerFactory factory) throws RemoteException {
+        if (username.getBytes(StandardCharsets.UTF_8).length > MAX_NAME) return false;
+        RemoteException[] failure = new RemoteException[1];
+        Player[] created = new Player[1];
+        ActionLog log = cube.log;
+        // a snapshot has both the player and its record in the log before its position, or neither
+        int stripe = cube.epoch.enter();
+        try {
+            players.computeIfAbsent(username, u -> {
+                try {
+                    Player p = factory.create();
+                    // in place before anyone can find the player
+                    if (role == 1) {
+                        attackers.put(u, (Attacker) p);
+                    } else {
+                        defenders.put(u, (Defender) p);
+                    }
+                    p.epoch = cube.epoch;
+                    p.log = log;
+                    leaderboard.add(p);
+                    created[0] = p;
+                    return p;
+                } catch (RemoteException e) {
+                    failure[0] = e;
+                    return null;
+                }
+            });
+            if (created[0] != null && log != null) log.register(created[0]);
+        } finally {
+            cube.epoch.exit(stripe);
+        }
+        if (failure[0] != null) throw failure[0];
+        return created[0] != null;
     }
 
     /**
@@ -228,13 +395,7 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
      * @throws RemoteException if rmi fails
      */
     public String printLeaderBoards() throws RemoteException {
-        Collections.sort(leaderboard);
-        int min = leaderboard.size() >= 10 ? 10 : leaderboard.size();
-        String s = "";
-        for (int i = 0; i < min; i++) {
-            s += (i + 1) + ": " + leaderboard.get(i).unameToString() + " " + leaderboard.get(i).getScore() + "\n";
-        }
-        return s;
+        return leaderboard.render();
     }
 
     /**
@@ -268,6 +429,7 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
             if (timePassed > timeLimit) {
                 timeLeft = timeLimit - timePassed;
                 System.err.println("Cube survived, defenders won");
+                events.publish(GameEvent.GAMEOVER, -1, null);
                 savePoints();
                 currentState.set(0);
                 return -1;
@@ -347,6 +509,19 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
                 }
                 break;
             }
+            case "REGISTERBATCH": {
+                // USERNAME-ROLE-PRIMARY-SECONDARY-ITEMS for every player
+                String[] registrations = new String[(tokens.length - 1) / 5];
+                for (int i = 0; i < registrations.length; i++) {
+                    registrations[i] = String.join("-", Arrays.copyOfRange(tokens, 1 + i * 5, 6 + i * 5));
+                }
+                StringBuilder r = new StringBuilder("REGISTERBATCH-").append(registrations.length).append("-");
+                for (boolean b : registerBatch(registrations)) {
+                    r.append(b ? '1' : '0');
+                }
+                resp = r.toString();
+                break;
+            }
             case "LOGIN": {
                 if (login(tokens[1]) != null) {
                     res = 1;
@@ -365,6 +540,10 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
                 resp = "LOGOUT-" + res + "-" + tokens[1];
                 break;
             }
+            case "ACTIONS": {
+                resp = actionsReply(requestPrimaryBatch(parseActions(tokens)));
+                break;
+            }
             case "ATTACK": {
                 res = requestPrimary(tokens[1], 1, tokens[2]);
                 resp = "ATTACK-(" + res + ")-" + tokens[1];
@@ -411,9 +590,19 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
                 break;
             }
             case "GETTARGETS": {
+                if (tokens.length > 1) {
+                    long version = Long.parseLong(tokens[1]);
+                    TargetSnapshot targets = cube.targets();
+                    resp = targets.version == version ? "UNCHANGED-" + version : targets.reply();
+                    break;
+                }
                 resp = "TARGETS-" + getTargets() + "\r\n";
                 break;
             }
+            case "GETDELTA": {
+                resp = getTargetDelta(Long.parseLong(tokens[1])).reply();
+                break;
+            }
             case "GETEND": {
                 res = getState();
                 resp = "GETEND-(" + res + ")-" + printLeaderBoards();
@@ -550,27 +739,270 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
      */
     public int requestPrimary(String user, int role, String block) throws RemoteException {
 //        System.err.println("Primary for " + block);
-        int result;
         if (role == 1) {
-            try {
-                result = attackers.get(user).attack(cube.getBlock(block));
-                if (cube.getBlock(block).getHp() <= 0) {
-                    int pos = cube.currentLayer.layer.indexOf(cube.getBlock(block));
-                    if (cube.currentLayer.layer.remove(pos) != null) {
-                        System.err.println("Removed " + cube.getBlock(block).toString());
-                    }
-                }
-            } catch (Exception e) {
-                result = -1;
-            }
+            return primary(attackers.get(user), role, cube.getBlock(block), true);
         } else {
+            return primary(defenders.get(user), role, cube.getBlock(block), true);
+        }
+    }
+
+    /**
+     * Apply the primary ability of an interned player to a block
+     *
+     * @param player the id of the player
+     * @param role   the role of the player
+     * @param x      x coordinate of the target block
+     * @param y      y coordinate of the target block
+     * @param z      z coordinate of the target block
+     * @return the result of a successful attempt, -1 otherwise
+     */
+    int requestPrimary(int player, int role, int x, int y, int z) {
+        return primary(player(player), role, cube.getBlock(x, y, z), true);
+    }
+
+    /**
+     * Apply the primary ability of an interned player to a block without waiting for its cooldown,
+     * see {@link LocalState#queueActions(boolean)}
+     *
+     * @param player the id of the player
+     * @param role   the role of the player
+     * @param x      x coordinate of the target block
+     * @param y      y coordinate of the target block
+     * @param z      z coordinate of the target block
+     * @return the result of a successful attempt, -1 otherwise, once the action was applied
+     */
+    CompletableFuture<Integer> requestPrimaryLater(int player, int role, int x, int y, int z) {
+        return primaryLater(player(player), role, cube.getBlock(x, y, z));
+    }
+
+    /**
+     * Apply the user's primary ability to a block
+     *
+     * @param user  the username to look up
+     * @param role  the role of the player
+     * @param block the id of the target block
+     * @return the result of a successful attempt, -1 otherwise
+     * @throws RemoteException if rmi fails
+     */
+    @Override
+    public int requestPrimary(String user, int role, int block) throws RemoteException {
+        return primary(role == 1 ? attackers.get(user) : defenders.get(user), role, cube.getBlock(block), true);
+    }
+
+    /**
+     * Apply the primary abilities of many players, each one checks its player's cooldown
+     *
+     * @param actions the requests, applied in order
+     * @return the result of each request, -1 for a failed one
+     * @throws RemoteException if rmi fails
+     */
+    @Override
+    public int[] requestPrimaryBatch(List<Action> actions) throws RemoteException {
+        if (queueActions) return primaryBatchLater(actions).join();
+        int[] res = new int[actions.size()];
+        for (int i = 0; i < res.length; i++) {
+            Action a = actions.get(i);
+            res[i] = requestPrimary(a.user, a.role, a.block);
+        }
+        return res;
+    }
+
+    /**
+     * @param tokens an ACTIONS request split on dashes, USERNAME-ROLE-X_Y_Z for every action
+     * @return the actions of the request
+     */
+    private static ArrayList<Action> parseActions(String[] tokens) {
+        ArrayList<Action> actions = new ArrayList<>((tokens.length - 1) / 3);
+        for (int i = 1; i + 2 < tokens.length; i += 3) {
+            actions.add(new Action(tokens[i], Integer.parseInt(tokens[i + 1]), tokens[i + 2]));
+        }
+        return actions;
+    }
+
+    private static String actionsReply(int[] results) {
+        StringBuilder r = new StringBuilder("ACTIONS-(");
+        for (int i = 0; i < results.length; i++) {
+            if (i > 0) r.append(',');
+            r.append(results[i]);
+        }
+        return r.append(')').toString();
+    }
+
+    /**
+     * Queue primary actions that come in before their player's cooldown is over
+     * and apply them once it is, instead of rejecting them with 0
+     * <p>
+     * A caller of {@link LocalState#requestPrimary(String, int, String)} then waits
+     * until its action was applied, the socket server replies once it was. The
+     * actions of a player are applied in the order they came in, one per cooldown,
+     * and once {@link LocalState#MAX_WAITING} of them wait the next ones are still
+     * rejected with 0.
+     *
+     * @param on true to queue early actions, false to reject them again
+     */
+    synchronized void queueActions(boolean on) {
+        if (on && scheduler == null) {
+            scheduler = new ActionScheduler();
+            scheduler.start();
+        }
+        queueActions = on;
+    }
+
+    /**
+     * @return true if early primary actions are queued, see {@link LocalState#queueActions(boolean)}
+     */
+    boolean queuesActions() {
+        return queueActions;
+    }
+
+    /**
+     * Parse an action request that can wait for a cooldown without holding up the caller
+     *
+     * @param request a request from a client
+     * @return the reply as {@link LocalState#parseRequest(String)} gives it once the action
+     * was applied, null if the request has to go through {@link LocalState#parseRequest(String)}
+     */
+    CompletableFuture<String> parseLater(String request) {
+        if (!queueActions) return null;
+        String[] tokens = request.split("-");
+        try {
+            if (tokens[0].equals("ACTIONS")) {
+                return primaryBatchLater(parseActions(tokens)).thenApply(LocalState::actionsReply);
+            }
+            if (tokens.length < 3 || !(tokens[0].equals("ATTACK") || tokens[0].equals("REPAIR"))) return null;
+            int role = tokens[0].equals("ATTACK") ? 1 : 0;
+            GameBlock block = cube.getBlock(tokens[2]);
+            return primaryLater(role == 1 ? attackers.get(tokens[1]) : defenders.get(tokens[1]), role, block)
+                    .thenApply(res -> tokens[0] + "-(" + res + ")-" + tokens[1]);
+        } catch (RuntimeException e) {
+            // a malformed request fails in parseRequest before it waits for anything
+            return null;
+        }
+    }
+
+    /**
+     * Apply the primary abilities of many players, each one once its player's cooldown is over
+     *
+     * @param actions the requests
+     * @return the result of each request, -1 for a failed one, once all of them were applied
+     */
+    private CompletableFuture<int[]> primaryBatchLater(List<Action> actions) {
+        // look up every target first so that a bad one fails the batch before anything is queued
+        GameBlock[] blocks = new GameBlock[actions.size()];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = cube.getBlock(actions.get(i).block);
+        }
+        // the players of the batch wait for their cooldowns side by side
+        ArrayList<CompletableFuture<Integer>> later = new ArrayList<>(blocks.length);
+        for (int i = 0; i < blocks.length; i++) {
+            Action a = actions.get(i);
+            later.add(primaryLater(a.role == 1 ? attackers.get(a.user) : defenders.get(a.user), a.role, blocks[i]));
+        }
+        return CompletableFuture.allOf(later.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            int[] res = new int[later.size()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = later.get(i).join();
+            }
+            return res;
+        });
+    }
+
+    /**
+     * Apply a primary ability once the player's cooldown is over
+     *
+     * @param player the player, null if unknown
+     * @param role   the role of the player
+     * @param block  the target block, null if unknown
+     * @return the result of a successful attempt, 0 if the player already has
+     * {@link LocalState#MAX_WAITING} actions waiting, -1 otherwise, completed at once
+     * if the player can act now or early actions are not queued
+     */
+    private CompletableFuture<Integer> primaryLater(Player player, int role, GameBlock block) {
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        if (!queueActions || player == null || block == null) {
+            done.complete(primary(player, role, block, false));
+            return done;
+        }
+        ArrayDeque<Runnable> waiting = player.waiting;
+        boolean first;
+        synchronized (waiting) {
+            if (waiting.size() >= MAX_WAITING) {
+                // turned away as if early actions were not queued
+                done.complete(0);
+                return done;
+            }
+            waiting.add(() -> done.complete(primary(player, role, block, false)));
+            first = waiting.size() == 1;
+        }
+        if (first) runWaiting(player);
+        return done;
+    }
+
+    /**
+     * Run the waiting actions of a player in order, each one once the cooldown is over.
+     * Only the first one is scheduled, so a player costs the scheduler a single timer
+     * however many actions it has waiting.
+     *
+     * @param player a player whose first waiting action was queued by the caller,
+     *               or scheduled by an earlier call
+     */
+    private void runWaiting(Player player) {
+        ArrayDeque<Runnable> waiting = player.waiting;
+        while (true) {
+            long wait = 0;
             try {
-                result = defenders.get(user).repair(cube.getBlock(block));
+                wait = player instanceof Attacker ? ((Attacker) player).cooldown() : ((Defender) player).cooldown();
             } catch (Exception e) {
-                result = -1;
+                // applied right away, and fails the same way
+            }
+            if (wait > 0 && queueActions) {
+                scheduler.schedule(System.nanoTime() + wait, () -> runWaiting(player));
+                return;
+            }
+            Runnable next;
+            synchronized (waiting) {
+                next = waiting.peek();
+            }
+            next.run();
+            synchronized (waiting) {
+                // whoever queues an action into an empty queue runs it
+                waiting.poll();
+                if (waiting.isEmpty()) return;
+            }
+        }
+    }
+
+    /**
+     * Apply a primary ability to a block
+     *
+     * @param queue wait for the player's cooldown if early actions are queued, false if it is over
+     */
+    private int primary(Player player, int role, GameBlock block, boolean queue) {
+        if (queue && queueActions) return primaryLater(player, role, block).join();
+        int stripe = cube.epoch.enter();
+        try {
+            int result;
+            if (role == 1) {
+                try {
+                    result = ((Attacker) player).attack(block);
+                    if (result == 0 && block.getHp() <= 0) {
+                        // already destroyed, let the player pick a new target
+                        result = -1;
+                    }
+                } catch (Exception e) {
+                    result = -1;
+                }
+            } else {
+                try {
+                    result = ((Defender) player).repair(block);
+                } catch (Exception e) {
+                    result = -1;
+                }
             }
+            return result;
+        } finally {
+            cube.epoch.exit(stripe);
         }
-        return result;
     }
 
     /**
@@ -584,33 +1016,71 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
      */
     @Override
     public int requestSecondary(String user, int role, String block) throws RemoteException {
+        if (role == 1) {
+            return secondary(attackers.get(user), role, cube.getBlock(block));
+        } else {
+            return secondary(defenders.get(user), role, cube.getBlock(block));
+        }
+    }
+
+    /**
+     * Apply the secondary ability of an interned player to a block
+     *
+     * @param player the id of the player
+     * @param role   the role of the player
+     * @param x      x coordinate of the target block
+     * @param y      y coordinate of the target block
+     * @param z      z coordinate of the target block
+     * @return the result of a successful attempt, -1 otherwise
+     */
+    int requestSecondary(int player, int role, int x, int y, int z) {
+        return secondary(player(player), role, cube.getBlock(x, y, z));
+    }
+
+    /**
+     * Apply the user's secondary ability to a block
+     *
+     * @param user  the username to look up
+     * @param role  the role of the player
+     * @param block the id of the target block
+     * @return the result of a successful attempt, -1 otherwise
+     * @throws RemoteException if rmi fails
+     */
+    @Override
+    public int requestSecondary(String user, int role, int block) throws RemoteException {
+        return secondary(role == 1 ? attackers.get(user) : defenders.get(user), role, cube.getBlock(block));
+    }
+
+    private int secondary(Player player, int role, GameBlock b1) {
+        int stripe = cube.epoch.enter();
         try {
-            if (role == 1) {
-                Random rand = new Random();
-                ArrayList<GameBlock> targets = new ArrayList<>();
-                int r1;
-                int idx = 0;
-                int attempts = 0;
-                int limit = cube.currentLayer.layer.size() >= 4 ? 4 : cube.currentLayer.layer.size();
-                while ((idx < limit) && (attempts < 10)) {
-                    GameBlock b = cube.currentLayer.layer.get(rand.nextInt(limit));
-                    if (!targets.contains(b)) {
-                        idx++;
-                        targets.add(b);
+            try {
+                if (role == 1) {
+                    Random rand = ThreadLocalRandom.current();
+                    Cube.Layer layer = cube.currentLayer;
+                    ArrayList<GameBlock> targets = new ArrayList<>();
+                    int r1;
+                    int attempts = 0;
+                    while ((targets.size() < 4) && (attempts < 10) && layer.isAlive()) {
+                        GameBlock b = layer.randomLive(rand);
+                        if (b != null && b != b1 && !targets.contains(b)) {
+                            targets.add(b);
+                        }
+                        attempts++;
                     }
-                    attempts++;
-                }
-                GameBlock b1 = cube.getBlock(block);
-                if (b1 != null) {
-                    targets.add(b1);
+                    if (b1 != null) {
+                        targets.add(b1);
+                    }
+                    r1 = ((Attacker) player).bomb(targets);
+                    return r1;
+                } else {
+                    return ((Defender) player).shield(b1);
                 }
-                r1 = attackers.get(user).bomb(targets);
-                return r1;
-            } else {
-                return defenders.get(user).shield(cube.getBlock(block));
+            } catch (Exception e) {
+                return -1;
             }
-        } catch (Exception e) {
-            return -1;
+        } finally {
+            cube.epoch.exit(stripe);
         }
     }
 
@@ -691,7 +1161,67 @@ public class LocalState extends UnicastRemoteObject implements RemoteState, Seri
      */
     @Override
     public String getTargets() {
-        return cube.currentLayer.toStringHp();
+        return cube.targets().text;
+    }
+
+    /**
+     * Request the available blocks to attack if they changed
+     *
+     * @param version the version of the targets the caller already has
+     * @return the available blocks, or null if they did not change
+     */
+    @Override
+    public TargetSnapshot getTargets(long version) {
+        TargetSnapshot targets = cube.targets();
+        return targets.version == version ? null : targets;
+    }
+
+    /**
+     * @return the version the targets will have once every change so far is included
+     */
+    long targetsVersion() {
+        return cube.version();
+    }
+
+    /**
+     * @return the level of the current layer, or 0 if the cube was destroyed
+     */
+    int level() {
+        return cube.level();
+    }
+
+    /**
+     * Push game events to a client until it unsubscribes or can not be reached
+     *
+     * @param listener the client's exported listener
+     * @return true if the client was subscribed, false if it already was
+     */
+    @Override
+    public boolean subscribe(GameListener listener) {
+        return events.subscribe(listener);
+    }
+
+    /**
+     * Stop pushing game events to a client
+     *
+     * @param listener the client's exported listener
+     * @return true if the client was subscribed
+     */
+    @Override
+    public boolean unsubscribe(GameListener listener) {
+        return events.unsubscribe(listener);
+    }
+
+    /**
+     * Request the blocks that changed since the given version
+     *
+     * @param version the version of the targets the caller already has
+     * @return the changed blocks, destroyed ones with 0 hitpoints,
+     * or all the available blocks if the version is too old
+     */
+    @Override
+    public TargetSnapshot getTargetDelta(long version) {
+        return cube.delta(version);
     }
 
     /**
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/**
+ * A session on the socket server shared by many clients, owned by one {@link EventLoop}
+ * <p>
+ * Every request is tagged, e.g. "#7 GETEND", and its reply is handed to the callback
+ * registered under that tag, so any number of requests can wait for a reply on the
+ * same connection. Requests sent while the loop is busy are written together.
+ * All the methods run on the loop's thread.
+ */
+class MuxConnection {
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final HashMap<Integer, Consumer<String>> waiting = new HashMap<>();
+    private ByteBuffer out = ByteBuffer.allocate(16 * 1024);
+    private ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+    /**
+     * the lines of the reply being read, joined with dots
+     */
+    private final StringBuilder reply = new StringBuilder();
+    private boolean session;
+    private boolean closed;
+    private int next;
+
+    /**
+     * Open a session, call before the loop starts or on its thread
+     *
+     * @param loop the loop the connection runs on
+     * @param host host of the server
+     * @param port port of the socket server
+     * @throws IOException if the server cannot be reached
+     */
+    MuxConnection(EventLoop loop, String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        channel.configureBlocking(false);
+        key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+        write(GameServer.SESSION + "\r\n");
+    }
+
+    /**
+     * @return true once the connection was lost or closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Send a request
+     *
+     * @param request the request, as for a single request socket connection
+     * @param done    receives the reply with its lines joined by dots, or null
+     *                if the connection is lost first
+     */
+    void send(String request, Consumer<String> done) {
+        if (closed) {
+            done.accept(null);
+            return;
+        }
+        int tag = next++;
+        waiting.put(tag, done);
+        write(GameServer.TAG + "" + tag + " " + request + "\r\n");
+    }
+
+    /**
+     * End the session, the requests still waiting get null
+     */
+    void close() {
+        if (closed) return;
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        ArrayList<Consumer<String>> lost = new ArrayList<>(waiting.values());
+        waiting.clear();
+        for (Consumer<String> done : lost) {
+            done.accept(null);
+        }
+    }
+
+    private void write(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (out.remaining() < bytes.length) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.length));
+            out.flip();
+            out = bigger.put(out);
+        }
+        out.put(bytes);
+        if ((key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Called by the loop when the channel can be read or written
+     *
+     * @param key the key of the connection
+     */
+    void ready(SelectionKey key) {
+        try {
+            if (key.isWritable()) flush();
+            if (key.isValid() && key.isReadable()) read();
+        } catch (IOException e) {
+            System.err.println("Connection to the server lost: " + e.getMessage());
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        channel.write(out);
+        out.compact();
+        if (out.position() == 0) key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void read() throws IOException {
+        if (!in.hasRemaining()) {
+            // a line longer than the buffer
+            ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            in = bigger.put(in);
+        }
+        if (channel.read(in) < 0) {
+            close();
+            return;
+        }
+        in.flip();
+        byte[] a = in.array();
+        int start = 0;
+        for (int i = 0; i < in.limit(); i++) {
+            if (a[i] != '\n') continue;
+            int end = i > start && a[i - 1] == '\r' ? i - 1 : i;
+            if (end == start) {
+                if (reply.length() > 0) received();
+            } else {
+                reply.append(new String(a, start, end - start, StandardCharsets.UTF_8)).append('.');
+            }
+            start = i + 1;
+            if (closed) return;
+        }
+        in.position(start);
+        in.compact();
+    }
+
+    /**
+     * Hand a complete reply to the request it answers
+     */
+    private void received() {
+        String r = reply.toString();
+        reply.setLength(0);
+        if (!session) {
+            session = true;
+            return;
+        }
+        // the lines are joined with dots, an empty reply arrives as "#7." without a space
+        int end = 1;
+        while (end < r.length() && Character.isDigit(r.charAt(end))) end++;
+        Consumer<String> done = r.charAt(0) == GameServer.TAG && end > 1 ? waiting.remove(Integer.parseInt(r.substring(1, end))) : null;
+        if (done == null) {
+            System.err.println("Reply to no request: " + r);
+            return;
+        }
+        try {
+            done.accept(end < r.length() && r.charAt(end) == ' ' ? r.substring(end + 1) : "");
+        } catch (RuntimeException e) {
+            // a bad reply fails its request, not the loop
+            System.err.println("Could not handle reply " + r);
+            e.printStackTrace();
+        }
+    }
+}
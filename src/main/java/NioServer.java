@@ -0,0 +1,648 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * Non-blocking socket front end for the game state
+ * <p>
+ * The acceptor hands every new connection to one of a small number of
+ * I/O loops. Each loop owns a selector and serves all of its connections,
+ * so the number of threads does not grow with the number of clients.
+ * Requests are framed by line and dispatched to {@link LocalState#parseRequest(String)}
+ * following the same rules as before: a connection is answered once and
+ * closed, unless its first line is {@link GameServer#SESSION}.
+ * <p>
+ * Every line that arrives in a read is run in order and all of the replies
+ * are written back with a single flush, so pipelining clients pay one round
+ * trip for a whole batch of requests.
+ * <p>
+ * A connection that starts with {@link BinaryProtocol#MAGIC} speaks the
+ * {@link BinaryProtocol} instead, with the same pipelining.
+ * <p>
+ * A connection whose first line is {@link NioServer#SUBSCRIBE} is sent a
+ * stream of replies framed like a session's: target deltas as in GETDELTA,
+ * LAYER-level when a layer is destroyed (0 when the cube is), GETEND-(state)
+ * and LEADERS-leaderboard whenever they change. The loops check for news
+ * every {@link NioServer#TICK} milliseconds and a subscriber whose previous
+ * updates are still unsent is skipped, so a slow subscriber gets fewer,
+ * larger updates and never holds up the game.
+ * <p>
+ * When the game queues early actions, see {@link LocalState#queueActions(boolean)},
+ * an action whose player is in cooldown is answered once it was applied without
+ * holding up the loop. The requests after it on the same connection wait for that
+ * reply, unless they are tagged: tagged replies can come back out of order.
+ */
+class NioServer {
+    private static final int READ_BUFFER = 256;
+    private static final int MAX_LINE = 64 * 1024;
+    private static final int WRITE_BUFFER = 16 * 1024;
+
+    static final String SUBSCRIBE = "SUBSCRIBE";
+    /**
+     * milliseconds between two updates of the subscribers
+     */
+    static final int TICK = 25;
+
+    private final LocalState state;
+    private final ServerSocketChannel serverChannel;
+    private final IoLoop[] loops;
+
+    /**
+     * Create a server listening on the given port
+     *
+     * @param state     game state
+     * @param port      port to listen on
+     * @param ioThreads number of I/O loops
+     * @throws IOException if the port can not be bound
+     */
+    NioServer(LocalState state, int port, int ioThreads) throws IOException {
+        this.state = state;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port), 4096);
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new IoLoop(i);
+        }
+    }
+
+    /**
+     * Start the I/O loops and accept connections until the server channel is closed
+     */
+    void run() {
+        for (IoLoop loop : loops) {
+            loop.start();
+        }
+        System.err.println("Accepting socket clients on port " + serverChannel.socket().getLocalPort()
+                + " with " + loops.length + " I/O threads");
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel ch = serverChannel.accept();
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].add(ch);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                if (!serverChannel.isOpen()) break;
+                e.printStackTrace();
+                System.err.println("Connection error");
+            }
+        }
+    }
+
+    /**
+     * Stop accepting clients and close every connection
+     */
+    void stop() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (IoLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * A thread that serves the connections registered with its selector
+     */
+    private class IoLoop extends Thread {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        /**
+         * replies to actions that waited for a cooldown, to be sent from the loop
+         */
+        private final ConcurrentLinkedQueue<Runnable> completed = new ConcurrentLinkedQueue<>();
+        /**
+         * replies are encoded here and only copied to a connection
+         * when the socket does not take them at once
+         */
+        private ByteBuffer scratch = ByteBuffer.allocate(WRITE_BUFFER);
+        private final ArrayList<Connection> subscribers = new ArrayList<>();
+        private long lastTick;
+
+        IoLoop(int id) throws IOException {
+            super("io-" + id);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            completed.add(task);
+            selector.wakeup();
+        }
+
+        void add(SocketChannel ch) {
+            accepted.add(ch);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                selector.close();
+            } catch (Exception e) {
+//                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    selector.select(subscribers.isEmpty() ? 0 : TICK);
+                    SocketChannel ch;
+                    while ((ch = accepted.poll()) != null) {
+                        try {
+                            ch.register(selector, SelectionKey.OP_READ, new Connection(this, ch));
+                        } catch (IOException e) {
+                            ch.close();
+                        }
+                    }
+                    Runnable task;
+                    while ((task = completed.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) c.flush();
+                            if (key.isValid() && key.isReadable()) c.read();
+                        } catch (IOException e) {
+                            c.close();
+                        } catch (RuntimeException e) {
+                            c.fail(e);
+                        }
+                    }
+                    if (!subscribers.isEmpty() && System.nanoTime() - lastTick >= TICK * 1_000_000L) {
+                        lastTick = System.nanoTime();
+                        tick();
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+//                server stopped
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("I/O loop " + getName() + " stopped");
+            }
+        }
+
+        /**
+         * Send the subscribers what changed since their last update
+         */
+        private void tick() {
+            long version = state.targetsVersion();
+            int level = state.level();
+            int end;
+            String leaders;
+            try {
+                end = state.getState();
+                leaders = state.printLeaderBoards();
+            } catch (Exception e) {
+                return;
+            }
+            // subscribers that are up to date with each other get the same delta
+            HashMap<Long, TargetSnapshot> deltas = new HashMap<>();
+            HashMap<Long, byte[]> encoded = new HashMap<>();
+            for (Connection c : new ArrayList<>(subscribers)) {
+                if (c.pending != null) continue;
+                c.mark = scratch.position();
+                if (c.level != level) {
+                    c.level = level;
+                    c.write(GameServer.frame("LAYER-" + level));
+                }
+                if (c.version != version) {
+                    TargetSnapshot delta = deltas.get(c.version);
+                    byte[] bytes = encoded.get(c.version);
+                    if (delta == null) {
+                        delta = state.getTargetDelta(c.version);
+                        bytes = GameServer.frame(delta.reply()).getBytes(StandardCharsets.UTF_8);
+                        deltas.put(c.version, delta);
+                        encoded.put(c.version, bytes);
+                    }
+                    c.version = delta.version;
+                    c.out(bytes.length).put(bytes);
+                }
+                if (c.end != end) {
+                    c.end = end;
+                    c.write(GameServer.frame("GETEND-(" + end + ")"));
+                }
+                if (!leaders.equals(c.leaders)) {
+                    c.leaders = leaders;
+                    c.write(GameServer.frame("LEADERS-" + leaders));
+                }
+                try {
+                    c.flush();
+                } catch (IOException e) {
+                    c.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * State of a single client connection
+     */
+    private class Connection {
+        private final IoLoop loop;
+        private final SocketChannel channel;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+        /**
+         * replies the socket did not take yet, null when there are none
+         */
+        private ByteBuffer pending;
+        /**
+         * where the replies of this connection start in the loop's scratch buffer
+         */
+        private int mark;
+        private boolean started;
+        private boolean session;
+        private boolean binary;
+        private boolean closing;
+        /**
+         * replies to actions that wait for a cooldown, and whether the requests after one wait too
+         */
+        private int waiting;
+        private boolean paused;
+        /**
+         * what a subscriber was last sent
+         */
+        private long version;
+        private int level = -1;
+        private int end = Integer.MIN_VALUE;
+        private String leaders;
+
+        Connection(IoLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        /**
+         * Read what is available, run every complete request and send the replies
+         *
+         * @throws IOException if socket communication fails
+         */
+        void read() throws IOException {
+            mark = loop.scratch.position();
+            int n = channel.read(in);
+            if (n < 0) {
+                // a client that half closes after its request is still answered
+                if (in.position() > 0 && !closing && !binary) {
+                    in.flip();
+                    handle(decode(in.position(), in.limit()));
+                    in.clear();
+                    closing = true;
+                    flush();
+                } else {
+                    close();
+                }
+                return;
+            }
+            if (process()) flush();
+        }
+
+        /**
+         * Run every complete request in the read buffer
+         *
+         * @return false if the connection was closed
+         */
+        private boolean process() {
+            in.flip();
+            if (!started && in.hasRemaining() && in.get(0) == BinaryProtocol.MAGIC) {
+                in.get();
+                started = true;
+                session = true;
+                binary = true;
+            }
+            int wanted = binary ? readFrames() : readLines();
+            if (closing) in.position(in.limit());
+            in.compact();
+            if (wanted > in.capacity()) {
+                if (wanted > (binary ? BinaryProtocol.MAX_FRAME + 4 : MAX_LINE)) {
+                    System.err.println("Request too long, closing connection");
+                    close();
+                    return false;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(wanted, in.capacity() * 2));
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+            return true;
+        }
+
+        /**
+         * Run every complete line in the read buffer
+         *
+         * @return the buffer size needed to make progress
+         */
+        private int readLines() {
+            byte[] buf = in.array();
+            int start = in.position();
+            for (int i = start; i < in.limit() && !closing && !paused; i++) {
+                if (buf[i] == '\n') {
+                    handle(decode(start, i));
+                    start = i + 1;
+                }
+            }
+            in.position(start);
+            return in.remaining() + 1;
+        }
+
+        /**
+         * Run every complete binary frame in the read buffer
+         *
+         * @return the buffer size needed to make progress
+         */
+        private int readFrames() {
+            while (in.remaining() >= 4 && !closing && !paused) {
+                int length = in.getInt(in.position());
+                if (length < BinaryProtocol.HEADER || length > BinaryProtocol.MAX_FRAME) {
+                    System.err.println("Bad frame length " + length + ", closing connection");
+                    closing = true;
+                    return 0;
+                }
+                if (in.remaining() < 4 + length) return 4 + length;
+                int end = in.position() + 4 + length;
+                in.getInt();
+                handleFrame(in.get(), in.getInt(), end);
+                in.position(end);
+            }
+            return 4;
+        }
+
+        /**
+         * Run a single binary request and queue its reply
+         *
+         * @param op  opcode
+         * @param tag request tag
+         * @param end end of the payload in the read buffer
+         */
+        private void handleFrame(byte op, int tag, int end) {
+            int res;
+            try {
+                switch (op) {
+                    case BinaryProtocol.ATTACK:
+                    case BinaryProtocol.REPAIR: {
+                        int player = in.getInt();
+                        int role = op == BinaryProtocol.ATTACK ? 1 : 0;
+                        int x = in.getInt();
+                        int y = in.getInt();
+                        int z = in.getInt();
+                        if (!state.queuesActions()) {
+                            res = state.requestPrimary(player, role, x, y, z);
+                            break;
+                        }
+                        CompletableFuture<Integer> later = state.requestPrimaryLater(player, role, x, y, z);
+                        if (!later.isDone()) {
+                            defer(later, true, r -> ByteBuffer.allocate(4 + BinaryProtocol.HEADER + 4)
+                                    .putInt(BinaryProtocol.HEADER + 4).put(op).putInt(tag).putInt(r).array());
+                            return;
+                        }
+                        res = later.join();
+                        break;
+                    }
+                    case BinaryProtocol.BOMB:
+                    case BinaryProtocol.SHIELD: {
+                        res = state.requestSecondary(in.getInt(), op == BinaryProtocol.BOMB ? 1 : 0,
+                                in.getInt(), in.getInt(), in.getInt());
+                        break;
+                    }
+                    case BinaryProtocol.GETEND: {
+                        res = state.getState();
+                        break;
+                    }
+                    case BinaryProtocol.INTERN: {
+                        res = state.playerId(decode(in.position(), end));
+                        break;
+                    }
+                    case BinaryProtocol.TEXT: {
+                        answer(decode(in.position(), end), r -> {
+                            byte[] bytes = r.getBytes(StandardCharsets.UTF_8);
+                            return ByteBuffer.allocate(4 + BinaryProtocol.HEADER + bytes.length)
+                                    .putInt(BinaryProtocol.HEADER + bytes.length).put(op).putInt(tag).put(bytes).array();
+                        }, true);
+                        return;
+                    }
+                    default:
+                        res = -1;
+                }
+            } catch (Exception e) {
+                res = -1;
+            }
+            out(4 + BinaryProtocol.HEADER + 4).putInt(BinaryProtocol.HEADER + 4).put(op).putInt(tag).putInt(res);
+        }
+
+        private String decode(int from, int to) {
+            if (to > from && in.array()[to - 1] == '\r') to--;
+            return new String(in.array(), from, to - from, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Run a single request line and queue its reply
+         *
+         * @param line the request
+         */
+        private void handle(String line) {
+            if (!started) {
+                started = true;
+                if (GameServer.SESSION.equals(line)) {
+                    session = true;
+                    write(GameServer.frame(GameServer.SESSION + "-1"));
+                    return;
+                }
+                if (SUBSCRIBE.equals(line)) {
+                    session = true;
+                    loop.subscribers.add(this);
+                    write(GameServer.frame(SUBSCRIBE + "-1"));
+                    return;
+                }
+            }
+            if (!session) {
+                answer(line, r -> (r + System.lineSeparator()).getBytes(StandardCharsets.UTF_8), true);
+                closing = true;
+                return;
+            }
+            if (line.isEmpty()) return;
+            String tag = "";
+            if (line.charAt(0) == GameServer.TAG) {
+                int sp = line.indexOf(' ');
+                if (sp < 0) {
+                    // a tag without a request, answered like an unknown request
+                    write(GameServer.frame(line + " "));
+                    return;
+                }
+                tag = line.substring(0, sp + 1);
+                line = line.substring(sp + 1);
+            }
+            if (GameServer.CLOSE.equals(line)) {
+                write(GameServer.frame(tag + GameServer.CLOSE + "-1"));
+                closing = true;
+                return;
+            }
+            String t = tag;
+            answer(line, r -> GameServer.frame(t + r).getBytes(StandardCharsets.UTF_8), tag.isEmpty());
+        }
+
+        /**
+         * Queue the reply to a request, or send it later if it is an action that waits for a cooldown
+         *
+         * @param line    the request
+         * @param encode  frames the reply
+         * @param ordered the requests after it have to wait for the reply
+         */
+        private void answer(String line, Function<String, byte[]> encode, boolean ordered) {
+            CompletableFuture<String> later = state.parseLater(line);
+            if (later != null && !later.isDone()) {
+                defer(later, ordered, encode);
+                return;
+            }
+            byte[] bytes = encode.apply(later == null ? reply(line) : later.join());
+            out(bytes.length).put(bytes);
+        }
+
+        /**
+         * Send a reply once an action that waits for a cooldown was applied
+         *
+         * @param later   the result of the action
+         * @param ordered hold the requests after it until then
+         * @param reply   encodes the reply
+         */
+        private <T> void defer(CompletableFuture<T> later, boolean ordered, Function<T, byte[]> reply) {
+            waiting++;
+            if (ordered) paused = true;
+            later.thenAccept(r -> loop.execute(() -> {
+                waiting--;
+                if (!channel.isOpen()) return;
+                mark = loop.scratch.position();
+                byte[] bytes = reply.apply(r);
+                out(bytes.length).put(bytes);
+                if (ordered) paused = false;
+                try {
+                    if (process()) flush();
+                } catch (IOException e) {
+                    close();
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            }));
+        }
+
+        private String reply(String line) {
+            try {
+                return state.parseRequest(line);
+            } catch (Exception e) {
+                System.err.println("Could not process request " + line);
+                return "";
+            }
+        }
+
+        private void write(String reply) {
+            byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+            out(bytes.length).put(bytes);
+        }
+
+        /**
+         * Buffer to queue replies in
+         *
+         * @param needed the number of bytes that will be written
+         * @return a buffer in write mode with room for the bytes
+         */
+        private ByteBuffer out(int needed) {
+            if (pending != null) {
+                return pending = ensure(pending, needed);
+            }
+            return loop.scratch = ensure(loop.scratch, needed);
+        }
+
+        /**
+         * Write queued replies, keep what the socket did not take and stop reading
+         * from the client until it has been sent
+         *
+         * @throws IOException if socket communication fails
+         */
+        void flush() throws IOException {
+            ByteBuffer out = pending != null ? pending : loop.scratch;
+            out.flip();
+            if (out.hasRemaining()) channel.write(out);
+            if (out.hasRemaining()) {
+                if (pending == null) {
+                    pending = ByteBuffer.allocate(Math.max(WRITE_BUFFER, out.remaining()));
+                    pending.put(out);
+                    out.clear();
+                } else {
+                    out.compact();
+                }
+                channel.keyFor(loop.selector).interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            out.clear();
+            pending = null;
+            if (closing && waiting == 0) {
+                close();
+                return;
+            }
+            // a connection waiting for an ordered reply is not read meanwhile
+            channel.keyFor(loop.selector).interestOps(paused || closing ? 0 : SelectionKey.OP_READ);
+        }
+
+        /**
+         * Close the connection after a bug in handling it, the other connections of the loop go on
+         *
+         * @param e what went wrong
+         */
+        void fail(RuntimeException e) {
+            System.err.println("Closing connection after an unexpected error");
+            e.printStackTrace();
+            close();
+        }
+
+        void close() {
+            loop.subscribers.remove(this);
+            if (pending == null) {
+                // drop the replies it did not send, the next connection of the loop writes after them
+                loop.scratch.clear();
+                loop.scratch.position(mark);
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Socket Close Error");
+            }
+        }
+    }
+
+    /**
+     * Make room for a number of bytes in a buffer in write mode
+     *
+     * @param buf    the buffer
+     * @param needed the number of bytes to be written
+     * @return the buffer, or a larger copy of it
+     */
+    private static ByteBuffer ensure(ByteBuffer buf, int needed) {
+        if (buf.remaining() >= needed) return buf;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + needed));
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+}
@@ -0,0 +1,320 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends primary actions to the server at a fixed rate, whether or not it keeps up
+ * <p>
+ * The bots of {@link BotGenerator} wait for every reply and then sleep, so a slow
+ * server slows them down and the time requests spend queued never shows in their
+ * latencies. Here the rate fixes up front when every request is meant to be sent,
+ * and its latency is measured from that time. A request that waits for a free
+ * worker because the server is behind counts the wait. The rate ramps up, holds
+ * steady and ramps down again, and every phase is reported on its own, both from
+ * the intended time and from the time the request was actually sent.
+ */
+public class OpenLoopGenerator {
+    private static final String[] PHASES = {"rampup", "steady", "cooldown"};
+    /**
+     * nanoseconds between two updates of the targets
+     */
+    private static final long REFRESH = 100_000_000L;
+    private static final int REGISTER_BATCH = 1000;
+
+    private final RemoteState state;
+    private final String host;
+    private final int port;
+    private final boolean socket;
+    private final double rate;
+    private final double rampUp;
+    private final double steady;
+    private final double coolDown;
+    private final String[] usernames;
+    /**
+     * the number of the first request after each phase
+     */
+    private final long[] phaseEnds = new long[PHASES.length];
+    /**
+     * latencies from the intended time and from the time requests were sent, by phase
+     */
+    private final Latencies[] response = new Latencies[PHASES.length];
+    private final Latencies[] service = new Latencies[PHASES.length];
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+    private volatile String[] targets = new String[0];
+    private volatile boolean over;
+    private long start;
+
+    /**
+     * @param host       host of the server
+     * @param port       port of the rmi registry, the socket server listens on the next one
+     * @param rate       requests per second once ramped up
+     * @param identities players the requests are spread over
+     * @param rampUp     seconds to ramp up to the rate
+     * @param steady     seconds to hold the rate
+     * @param coolDown   seconds to ramp down from the rate
+     * @param socket     send the requests on sockets instead of rmi
+     * @throws IOException if the server cannot be reached
+     */
+    private OpenLoopGenerator(String host, int port, double rate, int identities, double rampUp, double steady,
+                              double coolDown, boolean socket) throws IOException {
+        this.host = host;
+        this.port = port + 1;
+        this.rate = rate;
+        this.rampUp = rampUp;
+        this.steady = steady;
+        this.coolDown = coolDown;
+        this.socket = socket;
+        String transport = socket ? "SOCKET" : "RMI";
+        for (int p = 0; p < PHASES.length; p++) {
+            response[p] = new Latencies(transport + "/" + PHASES[p]);
+            service[p] = new Latencies(transport + "/" + PHASES[p] + "/service");
+        }
+        phaseEnds[0] = (long) (rate * rampUp / 2);
+        phaseEnds[1] = phaseEnds[0] + (long) (rate * steady);
+        phaseEnds[2] = phaseEnds[1] + (long) (rate * coolDown / 2);
+
+        System.setProperty("java.rmi.server.hostname", host);
+        try {
+            state = (RemoteState) java.rmi.Naming.lookup("rmi://" + host + ":" + port + "/" + GameServer.SERVER_NAME);
+        } catch (Exception e) {
+            throw new IOException("Could not connect to server", e);
+        }
+
+        usernames = new String[identities];
+        String run = Long.toString(new Random().nextInt(Integer.MAX_VALUE), 36);
+        for (int i = 0; i < identities; i++) {
+            usernames[i] = "OpenLoop" + run + "x" + i;
+        }
+    }
+
+    /**
+     * @param i the number of a request
+     * @return when the request is meant to be sent, in seconds after the start
+     */
+    private double intended(long i) {
+        if (i < phaseEnds[0]) {
+            // the rate grows linearly, i requests were sent after rate * t^2 / (2 * rampUp)
+            return Math.sqrt(2 * rampUp * i / rate);
+        }
+        if (i < phaseEnds[1]) {
+            return rampUp + (i - phaseEnds[0]) / rate;
+        }
+        // the rate shrinks linearly, k requests were sent after rate * t - rate * t^2 / (2 * coolDown)
+        double k = i - phaseEnds[1];
+        return rampUp + steady + coolDown * (1 - Math.sqrt(Math.max(0, 1 - 2 * k / (rate * coolDown))));
+    }
+
+    /**
+     * @param i the number of a request
+     * @return the phase the request is sent in
+     */
+    private int phase(long i) {
+        return i < phaseEnds[0] ? 0 : i < phaseEnds[1] ? 1 : 2;
+    }
+
+    /**
+     * Register the players, half of them attackers, fast enough to never wait for a cooldown
+     *
+     * @throws RemoteException if rmi fails
+     */
+    private void register() throws RemoteException {
+        for (int from = 0; from < usernames.length; from += REGISTER_BATCH) {
+            int to = Math.min(usernames.length, from + REGISTER_BATCH);
+            String[] registrations = new String[to - from];
+            for (int i = from; i < to; i++) {
+                registrations[i - from] = usernames[i] + "-" + (i & 1) + "-1-5-0";
+            }
+            state.registerBatch(registrations);
+        }
+    }
+
+    /**
+     * Keep the targets up to date until the game is over
+     */
+    private void refresh() {
+        TargetView view = new TargetView();
+        while (!over) {
+            try {
+                view.apply(state.getTargetDelta(view.version()));
+                targets = view.blocks();
+                if (!state.isAlive()) over = true;
+                LockSupport.parkNanos(REFRESH);
+            } catch (RemoteException e) {
+                System.err.println("Could not update the targets: " + e.getMessage());
+                over = true;
+            }
+        }
+    }
+
+    /**
+     * Send the requests whose turn it is, one at a time, until all were sent
+     */
+    private void work() {
+        Connection connection = null;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (!over) {
+            long i = next.getAndIncrement();
+            if (i >= phaseEnds[2]) break;
+            long intended = start + (long) (intended(i) * 1e9);
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long sent = System.nanoTime();
+            maxLag.accumulateAndGet(sent - intended, Math::max);
+
+            int identity = (int) (i % usernames.length);
+            int role = identity & 1;
+            String[] t = targets;
+            if (t.length == 0) {
+                errors.incrementAndGet();
+                continue;
+            }
+            String target = t[random.nextInt(t.length)];
+            try {
+                if (socket) {
+                    if (connection == null) connection = new Connection(host, port);
+                    connection.request((role == 1 ? "ATTACK-" : "REPAIR-") + usernames[identity] + "-" + target);
+                } else {
+                    state.requestPrimary(usernames[identity], role, Cube.blockId(target));
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                if (connection != null) connection.close();
+                connection = null;
+                continue;
+            }
+            int phase = phase(i);
+            response[phase].record(role, intended);
+            service[phase].record(role, sent);
+        }
+        if (connection != null) connection.close();
+    }
+
+    /**
+     * A session on the socket server used by a single worker
+     */
+    private static class Connection {
+        private final Socket socket;
+        private final PrintWriter out;
+        private final BufferedReader in;
+
+        Connection(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            out = new PrintWriter(socket.getOutputStream(), false);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            request(GameServer.SESSION);
+        }
+
+        String request(String req) throws IOException {
+            out.print(req + "\r\n");
+            out.flush();
+            return SocketBot.readReply(in);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Register the players, send every request and write the latencies
+     *
+     * @param workers threads sending requests, the most requests waiting for a reply at a time
+     * @throws InterruptedException if interrupted while waiting for the workers
+     * @throws IOException          if the results cannot be written
+     */
+    private void run(int workers) throws InterruptedException, IOException {
+        long t = System.nanoTime();
+        register();
+        System.err.format("Registered %d players in %.02f seconds%n", usernames.length, (System.nanoTime() - t) / 1e9);
+
+        Thread refresher = new Thread(this::refresh, "targets");
+        refresher.setDaemon(true);
+        refresher.start();
+        while (targets.length == 0 && !over) {
+            Thread.sleep(10);
+        }
+
+        ArrayList<Thread> threads = new ArrayList<>();
+        start = System.nanoTime();
+        for (int i = 0; i < workers; i++) {
+            Thread w = new Thread(this::work, "worker-" + i);
+            threads.add(w);
+            w.start();
+        }
+        for (Thread w : threads) {
+            w.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        over = true;
+
+        System.out.format("Sent %d of %d requests in %.02f seconds, %d failed, sending fell behind by up to %.03f seconds%n",
+                Math.min(next.get(), phaseEnds[2]), phaseEnds[2], elapsed, errors.get(), maxLag.get() / 1e9);
+        for (int p = 0; p < PHASES.length; p++) {
+            for (int op = Latencies.REPAIR; op <= Latencies.ATTACK; op++) {
+                LatencyHistogram h = response[p].merged(op);
+                if (h.count() == 0) continue;
+                System.out.format("%-8s %-6s %8d requests  p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us  max %8.1f us%n",
+                        PHASES[p], Latencies.OPS[op], h.count(), h.percentile(50) / 1e3, h.percentile(99) / 1e3,
+                        h.percentile(99.9) / 1e3, h.max() / 1e3);
+            }
+        }
+
+        BufferedWriter out = new BufferedWriter(new FileWriter(System.getProperty("user.home") + "/OPENLOOP_" +
+                (long) rate + "_" + usernames.length + "_" + workers + ".csv"));
+        Latencies.writeHeader(out);
+        for (int p = 0; p < PHASES.length; p++) {
+            response[p].write(out);
+            service[p].write(out);
+        }
+        out.close();
+    }
+
+    /**
+     * Command line program
+     *
+     * @param args host
+     *             port
+     *             requests per second
+     *             players
+     *             workers
+     *             ramp up(seconds)
+     *             steady(seconds)
+     *             cool down(seconds)
+     *             socket transport instead of rmi
+     * @throws InterruptedException if interrupted
+     * @throws IOException          if the server cannot be reached or the results cannot be written
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        System.err.println("Creating new open loop generator");
+        OpenLoopGenerator generator = new OpenLoopGenerator(
+                args[0],
+                Integer.parseInt(args[1]),
+                Double.parseDouble(args[2]),
+                Integer.parseInt(args[3]),
+                Double.parseDouble(args[5]),
+                Double.parseDouble(args[6]),
+                Double.parseDouble(args[7]),
+                (args.length > 8) && (args[8].equals("1")));
+        generator.run(Integer.parseInt(args[4]));
+        System.exit(0);
+    }
+}
@@ -1,8 +1,11 @@
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Basic player class maintains a username, the player's score, credits
@@ -16,6 +19,32 @@ public class Player extends UnicastRemoteObject implements Comparable<Player>, R
     private transient Object creditLock;
     private transient Object logLock;
     private volatile boolean logged;
+    /**
+     * the leaderboard told about score changes, null on the client side
+     */
+    transient volatile Leaderboard board;
+    /**
+     * the epoch of the game, null on the client side
+     */
+    transient volatile Epoch epoch;
+    /**
+     * the log the changes to the player are written to, null if none
+     */
+    transient volatile ActionLog log;
+    /**
+     * primary actions waiting for the cooldown of the player, oldest first,
+     * see {@link LocalState#queueActions(boolean)}
+     */
+    final transient ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+    private transient byte[] nameBytes;
+    /**
+     * The epoch of the snapshot for which the saved record was copied
+     * before the first change made in it, see {@link Epoch}
+     */
+    private transient volatile int savedEpoch;
+    private transient int[] saved;
+    private static final AtomicIntegerFieldUpdater<Player> SAVED =
+            AtomicIntegerFieldUpdater.newUpdater(Player.class, "savedEpoch");
 
     private final double boostCooldown = 10.0;
 
@@ -37,14 +66,6 @@ public class Player extends UnicastRemoteObject implements Comparable<Player>, R
         this.role = role;
     }
 
-    /**
-     * Reset locks to enable deserialization
-     */
-    void resetLocks() {
-        creditLock = new Object();
-        logLock = new Object();
-    }
-
     /**
      * Get the role of a player
      *
@@ -180,10 +201,17 @@ public class Player extends UnicastRemoteObject implements Comparable<Player>, R
      * @throws RemoteException if rmi fails
      */
     public void gainCredits(int c) throws RemoteException {
+        preserve();
+        int s;
         synchronized (creditLock) {
             this.credits += c;
             this.score += c;
+            s = this.score;
         }
+        ActionLog l = log;
+        if (l != null) l.credits(this, c, c);
+        Leaderboard b = board;
+        if (b != null) b.changed(this, s);
     }
 
     /**
@@ -194,13 +222,30 @@ public class Player extends UnicastRemoteObject implements Comparable<Player>, R
      * @throws RemoteException if rmi fails
      */
     public boolean removeCredits(int c) throws RemoteException {
+        preserve();
         synchronized (creditLock) {
             if (this.credits >= c) {
                 credits -= c;
-                return true;
+            } else {
+                return false;
             }
         }
-        return false;
+        ActionLog l = log;
+        if (l != null) l.credits(this, 0, -c);
+        return true;
+    }
+
+    /**
+     * Add the score and credits logged after a snapshot, see {@link ActionLog}
+     *
+     * @param score   the score gained
+     * @param credits the credits gained, negative if spent
+     */
+    void replay(int score, int credits) {
+        synchronized (creditLock) {
+            this.score += score;
+            this.credits += credits;
+        }
     }
 
     @Override
@@ -258,6 +303,114 @@ public class Player extends UnicastRemoteObject implements Comparable<Player>, R
         return new ArrayList<>();
     }
 
+    /**
+     * Return the ratings and items of the player, as passed to
+     * {@link LocalState#register(String, int, int, int, int, int, int)}
+     * followed by the credits needed to level them up
+     *
+     * @return primary rating, secondary rating, items, credits to level the
+     * primary rating, credits to level the secondary rating
+     */
+    int[] stats() {
+        return new int[5];
+    }
+
+    /**
+     * Set the ratings and items of the player as returned by {@link Player#stats()}
+     *
+     * @param stats primary rating, secondary rating, items, credits to level the
+     *              primary rating, credits to level the secondary rating
+     */
+    void setStats(int[] stats) {
+    }
+
+    /**
+     * Log the stats of the player after they changed
+     */
+    void logStats() {
+        ActionLog l = log;
+        if (l != null) l.stats(this);
+    }
+
+    /**
+     * @return the username as UTF-8, as written to the {@link ActionLog}
+     */
+    byte[] nameBytes() {
+        byte[] n = nameBytes;
+        if (n == null) {
+            n = userName.getBytes(StandardCharsets.UTF_8);
+            nameBytes = n;
+        }
+        return n;
+    }
+
+    /**
+     * @return score, credits and {@link Player#stats()}
+     */
+    private int[] record() {
+        int[] stats = stats();
+        int[] record = new int[2 + stats.length];
+        synchronized (creditLock) {
+            record[0] = score;
+            record[1] = credits;
+        }
+        System.arraycopy(stats, 0, record, 2, stats.length);
+        return record;
+    }
+
+    /**
+     * Read the player as it was when a snapshot started
+     *
+     * @param epoch the epoch of the snapshot
+     * @return score, credits and {@link Player#stats()}
+     */
+    int[] snapshot(int epoch) {
+        int[] record = record();
+        return savedEpoch == epoch ? saved : record;
+    }
+
+    /**
+     * Copy the player before its first change while a snapshot is taken,
+     * called before anything in {@link Player#snapshot(int)} changes
+     */
+    void preserve() {
+        Epoch e = epoch;
+        if (e == null) return;
+        int copying = e.copying();
+        if (copying == 0) return;
+        while (true) {
+            int s = savedEpoch;
+            if (s == copying) return;
+            if (s != -1 && SAVED.compareAndSet(this, s, -1)) {
+                saved = record();
+                savedEpoch = copying;
+                return;
+            }
+            // another action is copying it
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Start an action that changes the player, see {@link Epoch#enter()}
+     *
+     * @return the value to pass to {@link Player#exit(int)}
+     */
+    int enter() {
+        Epoch e = epoch;
+        return e == null ? -1 : e.enter();
+    }
+
+    /**
+     * End an action that changes the player
+     *
+     * @param stripe the value returned by {@link Player#enter()}
+     */
+    void exit(int stripe) {
+        Epoch e = epoch;
+        if (e != null && stripe >= 0) e.exit(stripe);
+    }
+
     /**
      * Comparator for players
      *
@@ -1,4 +1,5 @@
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * The remote interface for the game state
@@ -47,6 +48,15 @@ public interface RemoteState extends java.rmi.Remote {
      */
     boolean register(String username, int role, int score, int credits, int primary, int secondary, int items) throws RemoteException;
 
+    /**
+     * Attempt to register many usernames at once
+     *
+     * @param registrations the players formatted as USERNAME-ROLE-PRIMARY-SECONDARY-ITEMS
+     * @return for each player true if the registration was successful, false otherwise
+     * @throws RemoteException if rmi fails
+     */
+    boolean[] registerBatch(String[] registrations) throws RemoteException;
+
     /**
      * Check if the game is over
      *
@@ -68,6 +78,27 @@ public interface RemoteState extends java.rmi.Remote {
      */
     int requestPrimary(String user, int role, String block) throws RemoteException;
 
+    /**
+     * Request to apply the primary ability of the player on a block
+     *
+     * @param user  the player's name
+     * @param role  the player's role
+     * @param block the id of the target block, see {@link Cube#blockId(String)}
+     * @return the result of the request
+     * @throws RemoteException if rmi fails
+     */
+    int requestPrimary(String user, int role, int block) throws RemoteException;
+
+    /**
+     * Request to apply the primary abilities of many players in one call,
+     * every player's cooldown applies as if the requests were sent one by one
+     *
+     * @param actions the requests, applied in order
+     * @return the result of each request
+     * @throws RemoteException if rmi fails
+     */
+    int[] requestPrimaryBatch(List<Action> actions) throws RemoteException;
+
     /**
      * Request to apply the secondary ability of the player on a block
      *
@@ -79,6 +110,17 @@ public interface RemoteState extends java.rmi.Remote {
      */
     int requestSecondary(String user, int role, String block) throws RemoteException;
 
+    /**
+     * Request to apply the secondary ability of the player on a block
+     *
+     * @param user  the player's name
+     * @param role  the player's role
+     * @param block the id of the target block, see {@link Cube#blockId(String)}
+     * @return the result of the request
+     * @throws RemoteException if rmi fails
+     */
+    int requestSecondary(String user, int role, int block) throws RemoteException;
+
     /**
      * Request to boost player's speed
      *
@@ -145,6 +187,43 @@ public interface RemoteState extends java.rmi.Remote {
      */
     String getTargets() throws RemoteException;
 
+    /**
+     * Get the available targets for the player if they changed
+     *
+     * @param version the version of the targets the player already has, or 0
+     * @return the available targets, or null if they did not change
+     * @throws RemoteException if rmi fails
+     */
+    TargetSnapshot getTargets(long version) throws RemoteException;
+
+    /**
+     * Get the targets that changed since the given version
+     *
+     * @param version the version of the targets the player already has, or 0
+     * @return the targets that changed, or all of them if the version is too old
+     * @throws RemoteException if rmi fails
+     */
+    TargetSnapshot getTargetDelta(long version) throws RemoteException;
+
+    /**
+     * Have layer changes, destroyed blocks and the end of the game pushed
+     * to the client instead of polling for them
+     *
+     * @param listener an exported listener of the client
+     * @return true if the client was subscribed, false if it already was
+     * @throws RemoteException if rmi fails
+     */
+    boolean subscribe(GameListener listener) throws RemoteException;
+
+    /**
+     * Stop pushing events to the client
+     *
+     * @param listener a listener passed to {@link RemoteState#subscribe(GameListener)}
+     * @return true if the client was subscribed
+     * @throws RemoteException if rmi fails
+     */
+    boolean unsubscribe(GameListener listener) throws RemoteException;
+
     /**
      * Print a player as a String
      *
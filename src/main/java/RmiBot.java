@@ -1,5 +1,9 @@
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -8,8 +12,84 @@ import java.util.concurrent.ThreadLocalRandom;
  * the first available block until the game is over
  */
 public class RmiBot extends Bot {
+    /**
+     * how often a subscribed bot still checks that the game is going, in case an event was lost
+     */
+    private static final long ALIVE_CHECK = 1_000_000_000L;
+
     private RemoteState state;
     private boolean randomTargeting;
+    private final ConcurrentLinkedQueue<GameEvent> events = new ConcurrentLinkedQueue<>();
+    private GameListener listener;
+
+    /**
+     * Receives the events pushed by the server, they are applied by the bot's own thread
+     */
+    private class Listener implements GameListener {
+        @Override
+        public void onEvents(GameEvent[] received) throws RemoteException {
+            Collections.addAll(events, received);
+        }
+    }
+
+    /**
+     * Export a listener and subscribe it to the game's events
+     *
+     * @return true if the bot is subscribed
+     */
+    private boolean subscribe() {
+        try {
+            Listener l = new Listener();
+            listener = (GameListener) UnicastRemoteObject.exportObject(l, 0);
+            if (state.subscribe(listener)) return true;
+        } catch (RemoteException e) {
+            System.err.println(username + " could not subscribe, polling instead");
+        }
+        unsubscribe();
+        return false;
+    }
+
+    private void unsubscribe() {
+        if (listener == null) return;
+        try {
+            state.unsubscribe(listener);
+        } catch (RemoteException e) {
+//            e.printStackTrace();
+        }
+        try {
+            UnicastRemoteObject.unexportObject(listener, true);
+        } catch (NoSuchObjectException e) {
+//            e.printStackTrace();
+        }
+        listener = null;
+    }
+
+    /**
+     * Apply the events received since the last call
+     *
+     * @throws RemoteException if rmi fails
+     */
+    private void applyEvents() throws RemoteException {
+        GameEvent event;
+        boolean refresh = false;
+        while ((event = events.poll()) != null) {
+            switch (event.getType()) {
+                case GameEvent.DESTROYED:
+                    targets.remove(event.getBlock());
+                    break;
+                case GameEvent.LAYER:
+                case GameEvent.RESYNC:
+                    refresh = true;
+                    break;
+                case GameEvent.GAMEOVER:
+                    running = false;
+                    return;
+            }
+        }
+        if (refresh) {
+            updateTargets();
+        }
+    }
 
     /**
      * Add the stats to the correct array
@@ -34,21 +114,30 @@ public class RmiBot extends Bot {
      * @throws RemoteException if rmi fails
      */
     private void selectAttack() throws RemoteException {
-        if (targets == null || targets.isEmpty()) return;
-        String[] tokens = targets.split("\n");
+        if (targets.isEmpty()) return;
 //        System.err.println("RMI " + roles[role] + " " + username + " targeting " + tokens[0].split(":")[0]);
 
-        int block = randomTargeting ? ThreadLocalRandom.current().nextInt(0, tokens.length) : 0;
-
-        int res = state.requestPrimary(username, role, tokens[block].split(":")[0]);
+        String target = randomTargeting ? targets.random(ThreadLocalRandom.current()) : targets.first();
+        long start = System.nanoTime();
+        int res = state.requestPrimary(username, role, Cube.blockId(target));
+        latencies.record(role, start);
         if (res < 0) {
-            long start = System.nanoTime();
-            targets = state.getTargets();
-            avgDelay += (System.nanoTime() - start);
+            start = System.nanoTime();
+            updateTargets();
+            avgDelay += latencies.record(Latencies.TARGETS, start);
             numOps++;
         }
     }
 
+    /**
+     * Apply the targets that changed since the last update
+     *
+     * @throws RemoteException if rmi fails
+     */
+    private void updateTargets() throws RemoteException {
+        targets.apply(state.getTargetDelta(targets.version()));
+    }
+
     /**
      * Constructor
      *
@@ -77,21 +166,24 @@ public class RmiBot extends Bot {
 
         this.countDownLatch = countDownLatch;
         this.randomTargeting = randomTargeting;
+        this.latencies = latenciesRmi;
     }
 
     public void run() {
         long start;
-        System.err.println("Trying to register " + roles[role] + " " + username);
         try {
-            if (primary != -1) {
-                if (!state.register(username, role, 0, 0, primary, secondary, items)) {
-                    System.err.println("Registration failed");
-                    return;
-                }
-            } else {
-                if (!state.register(username, role)) {
-                    System.err.println("Registration failed");
-                    return;
+            if (!registered) {
+                System.err.println("Trying to register " + roles[role] + " " + username);
+                if (primary != -1) {
+                    if (!state.register(username, role, 0, 0, primary, secondary, items)) {
+                        System.err.println("Registration failed");
+                        return;
+                    }
+                } else {
+                    if (!state.register(username, role)) {
+                        System.err.println("Registration failed");
+                        return;
+                    }
                 }
             }
         } catch (RemoteException re) {
@@ -106,15 +198,25 @@ public class RmiBot extends Bot {
         try {
             countDownLatch.countDown();
             countDownLatch.await();
+            boolean subscribed = subscribe();
+            long lastCheck = System.nanoTime();
 //            while (state.printStatus() != 0) {
-            while (state.isAlive()) {
+            while (running) {
+                if (!subscribed || System.nanoTime() - lastCheck > ALIVE_CHECK) {
+                    lastCheck = System.nanoTime();
+                    boolean alive = state.isAlive();
+                    latencies.record(Latencies.END, lastCheck);
+                    if (!alive) break;
+                }
 //            while (state.isAlive() && running) {
 //            while ((targets = state.getTargets()) != null && running) {
                 try {
-                    if (targets == null) {
+                    if (subscribed) applyEvents();
+                    if (!running) break;
+                    if (targets.version() == 0) {
                         start = System.nanoTime();
-                        targets = state.getTargets();
-                        avgDelay += (System.nanoTime() - start);
+                        updateTargets();
+                        avgDelay += latencies.record(Latencies.TARGETS, start);
                         numOps++;
                         continue;
                     }
@@ -134,6 +236,7 @@ public class RmiBot extends Bot {
                 }
             }
             System.err.println("Game over");
+            unsubscribe();
             if (numOps != 0) {
                 avgDelay /= numOps;
                 addStats();
@@ -144,6 +247,7 @@ public class RmiBot extends Bot {
             System.err.println(username + " exception 2:");
             e.printStackTrace();
             running = false;
+            unsubscribe();
             if (numOps != 0) {
                 avgDelay /= numOps;
                 addStats();
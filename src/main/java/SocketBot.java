@@ -1,14 +1,21 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.concurrent.CountDownLatch;
 
 /**
  * A bot that uses the socket interface to target
- * the first available block until the game is over
+ * the first available block until the game is over,
+ * all of its requests go through a single session with the server
  */
 public class SocketBot extends Bot {
     private int port;
@@ -16,6 +23,21 @@ public class SocketBot extends Bot {
     private Socket socket;
     private PrintWriter out;
     private BufferedReader in = null;
+    private boolean binary;
+    private DataOutputStream binOut;
+    private DataInputStream binIn;
+    private int playerId = -1;
+    private String target;
+    private int[] targetCoordinates;
+    /**
+     * connection the server streams targets and the game state on, null if not subscribed
+     */
+    private Socket feed;
+    private BufferedReader feedIn;
+    /**
+     * sessions shared with other bots, null if the bot has a session of its own
+     */
+    private ConnectionPool pool;
 
     /**
      * Add the stats to the correct array
@@ -44,6 +66,42 @@ public class SocketBot extends Bot {
      * @param regString string to pass to the registration function
      */
     SocketBot(String username, int role, String host, int port, long sleep, String regString, CountDownLatch countDownLatch) {
+        this(username, role, host, port, sleep, regString, countDownLatch, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param username  player name
+     * @param role      player role
+     * @param host      hostname to connect to
+     * @param port      port in which the rmi state is connected to
+     * @param sleep     time to sleep between attacks(nanoseconds)
+     * @param regString string to pass to the registration function
+     * @param binary    use the {@link BinaryProtocol} instead of the text protocol
+     */
+    SocketBot(String username, int role, String host, int port, long sleep, String regString,
+              CountDownLatch countDownLatch, boolean binary) {
+        this(username, role, host, port, sleep, regString, countDownLatch, binary, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param username  player name
+     * @param role      player role
+     * @param host      hostname to connect to
+     * @param port      port in which the rmi state is connected to
+     * @param sleep     time to sleep between attacks(nanoseconds)
+     * @param regString string to pass to the registration function
+     * @param binary    use the {@link BinaryProtocol} instead of the text protocol
+     * @param pool      send the requests over sessions shared with other bots, null for a session of its own,
+     *                  the text protocol only
+     */
+    SocketBot(String username, int role, String host, int port, long sleep, String regString,
+              CountDownLatch countDownLatch, boolean binary, ConnectionPool pool) {
+        this.pool = binary ? null : pool;
+        this.binary = binary;
         this.countDownLatch = countDownLatch;
         this.running = true;
         this.host = host;
@@ -53,6 +111,7 @@ public class SocketBot extends Bot {
         this.sleep = sleep;
         this.regString = regString;
         this.role = role;
+        this.latencies = latenciesSocket;
         if (this.role == 1) {
             System.err.println("Created new socket attacker bot " + username);
         } else {
@@ -70,20 +129,55 @@ public class SocketBot extends Bot {
     }
 
     private int requestPrimary() throws IOException {
-        String tokens[] = targets.split("\n");
-        String target = tokens[0].split(":")[0];
+        String target = targets.first();
+        if (binary) {
+            return requestPrimaryBinary(target);
+        }
 //        if (target == null) {
 //            running = false;
 //            return -1;
 //        }
-        int res;
 //        System.err.println("Socket " + roles[role] + " " + username + " targeting " + tokens[0].split(":")[0]);
+        if (pool != null) {
+            // the pool checks for the end of the game for all its bots
+            processEnd(pool.end());
+        }
+        if (feed != null || pool != null) {
+            return sendRequest((role == 1 ? "ATTACK-" : "REPAIR-") + username + "-" + target);
+        }
+        // check for the end of the game in the same round trip as the action
         if (role == 1) {
-            res = sendRequest("ATTACK-" + username + "-" + target);
+            return sendPipelined("GETEND", "ATTACK-" + username + "-" + target)[1];
         } else {
-            res = sendRequest("REPAIR-" + username + "-" + target);
+            return sendPipelined("GETEND", "REPAIR-" + username + "-" + target)[1];
         }
-        return res;
+    }
+
+    /**
+     * Send the action together with a game state request as binary frames
+     *
+     * @param target the block to target
+     * @return the result of the action
+     * @throws IOException if socket communication fails
+     */
+    private int requestPrimaryBinary(String target) throws IOException {
+        if (!target.equals(this.target)) {
+            this.target = target;
+            this.targetCoordinates = BinaryProtocol.coordinates(target);
+        }
+        try {
+            if (feed == null) BinaryProtocol.writeRequest(binOut, BinaryProtocol.GETEND, 0);
+            BinaryProtocol.writeAction(binOut, role == 1 ? BinaryProtocol.ATTACK : BinaryProtocol.REPAIR, 1,
+                    playerId, targetCoordinates);
+            binOut.flush();
+            if (feed == null) processEnd(BinaryProtocol.readInt(binIn));
+            return BinaryProtocol.readInt(binIn);
+        } catch (IOException e) {
+            System.err.format("SocketBot unable to connect to server %s on port %d", host, port);
+            running = false;
+            disconnect();
+        }
+        return -1;
     }
 
     private int processReply(String reply) {
@@ -101,9 +195,23 @@ public class SocketBot extends Bot {
                 System.err.println("Could not register");
                 return -1;
             }
-            case "TARGETS": {
-                targets = tokens[1].replace(".", "\n");
-                if (targets == null) running = false;
+            case "TARGETS":
+            case "DELTA": {
+                String[] versioned = reply.split("-", 3);
+                if (versioned.length == 3) {
+                    targets.apply(Long.parseLong(versioned[1]), versioned[2], tokens[0].equals("DELTA"));
+                    break;
+                }
+                targets.apply(targets.version(), tokens.length > 1 ? tokens[1] : "", false);
+                break;
+            }
+            case "UNCHANGED":
+            case "LEADERS":
+            case "SUBSCRIBE": {
+                break;
+            }
+            case "LAYER": {
+                if (Integer.parseInt(tokens[1].replace(".", "")) == 0) running = false;
                 break;
             }
             case "LOGIN": {
@@ -117,109 +225,302 @@ public class SocketBot extends Bot {
                 break;
             }
             case "ATTACK": {
-                res = Integer.parseInt(reply.substring(
+                return Integer.parseInt(reply.substring(
                         reply.indexOf("(") + 1, reply.indexOf(")")));
-                break;
             }
             case "REPAIR": {
-                res = Integer.parseInt(reply.substring(
+                return Integer.parseInt(reply.substring(
                         reply.indexOf("(") + 1, reply.indexOf(")")));
-                break;
             }
             case "GETEND": {
-                res = Integer.parseInt(reply.substring(
-                        reply.indexOf("(") + 1, reply.indexOf(")")));
-                if (res == 0) break;
-                try {
-                    if (res == 666) {
-                        System.err.println("Game crashed, we apologise for the inconvenience");
-                        running = false;
-                    }
-                    if (res == 1) {
-//                        System.err.println(username + " Attackers won, thanks for playing");
-//                        System.err.println("----- Top Players -----");
-//                        System.err.println(tokens[2].replace(".", "\n"));
-                        running = false;
-                    }
-                    if (res == -1) {
-//                        System.err.println(username + " Defenders won, thanks for playing");
-//                        System.err.println("----- Top Players -----");
-//                        System.err.println(tokens[2].replace(".", "\n"));
-                        running = false;
-                    }
-                } catch (Exception e) {
-                    running = false;
-                    System.err.println(username + " Game crashed, we apologise for the inconvenience");
-                }
+                processEnd(Integer.parseInt(reply.substring(
+                        reply.indexOf("(") + 1, reply.indexOf(")"))));
             }
         }
         return 0;
     }
 
-    private int sendRequest(String req) throws IOException {
+    /**
+     * Stop the bot if the game is over
+     *
+     * @param res the state of the game
+     */
+    private void processEnd(int res) {
+        if (res == 0) return;
         try {
-//            System.err.println(host + " " + port + 1);
-            socket = new Socket(host, port);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            if (res == 666) {
+                System.err.println("Game crashed, we apologise for the inconvenience");
+                running = false;
+            }
+            if (res == 1) {
+//                System.err.println(username + " Attackers won, thanks for playing");
+                running = false;
+            }
+            if (res == -1) {
+//                System.err.println(username + " Defenders won, thanks for playing");
+                running = false;
+            }
+        } catch (Exception e) {
+            running = false;
+            System.err.println(username + " Game crashed, we apologise for the inconvenience");
+        }
+    }
 
-            while (true) {
-                try {
-                    StringBuilder resp = new StringBuilder();
-                    String line;
-                    out.print(req + "\r\n");
-                    out.flush();
-                    while ((line = in.readLine()) != null && line.length() != 0) {
-                        resp.append(line).append(".");
-                    }
-//                    System.err.println("Response received :" + resp);
-//                resp = processReply(in.readLine());
-//                    if(req.equals("GETTARGETS")){
-//                        System.err.println(resp.toString());
-//                    }
-//                    int ret = processReply(resp.toString());
-                    return processReply(resp.toString());
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Open a session with the server that is kept for every following request
+     *
+     * @throws IOException if the server can not be reached or does not accept sessions
+     */
+    private void connect() throws IOException {
+        socket = new Socket(host, port);
+        if (binary) {
+            socket.setTcpNoDelay(true);
+            binOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            binIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            binOut.writeByte(BinaryProtocol.MAGIC);
+            return;
+        }
+        out = new PrintWriter(socket.getOutputStream(), true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        out.print(GameServer.SESSION + "\r\n");
+        out.flush();
+        if (!readReply().startsWith(GameServer.SESSION)) {
+            throw new IOException("Server does not accept sessions");
+        }
+    }
+
+    /**
+     * Open a connection the server streams the targets and the state of the game on,
+     * so that they do not have to be requested
+     */
+    private void subscribe() {
+        try {
+            feed = new Socket(host, port);
+            feedIn = new BufferedReader(new InputStreamReader(feed.getInputStream()));
+            PrintWriter request = new PrintWriter(feed.getOutputStream(), true);
+            request.print(NioServer.SUBSCRIBE + "\r\n");
+            request.flush();
+            if (!readReply(feedIn).startsWith(NioServer.SUBSCRIBE)) {
+                throw new IOException("Server does not accept subscriptions");
             }
+        } catch (IOException e) {
+            System.err.println(username + " could not subscribe, polling instead");
+            closeFeed();
+        }
+    }
 
+    /**
+     * Apply the updates streamed by the server
+     *
+     * @param wait block until at least one update arrives
+     * @throws IOException if the connection was closed
+     */
+    private void readFeed(boolean wait) throws IOException {
+        if (!wait && !feedIn.ready()) return;
+        do {
+            processReply(readReply(feedIn));
+        } while (running && feedIn.ready());
+    }
+
+    private void closeFeed() {
+        if (feed == null) return;
+        try {
+            feed.close();
+        } catch (IOException e) {
+//            e.printStackTrace();
+        }
+        feed = null;
+    }
+
+    /**
+     * Close the session with the server
+     */
+    private void disconnect() {
+        closeFeed();
+        if (socket == null) return;
+        if (binary) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+//                e.printStackTrace();
+            }
+            socket = null;
+            return;
+        }
+        try {
+            out.print(GameServer.CLOSE + "\r\n");
+            out.flush();
+            readReply();
+        } catch (IOException e) {
+//            e.printStackTrace();
+        } finally {
+            try {
+                out.close();
+                in.close();
+                socket.close();
+            } catch (IOException e) {
+//                e.printStackTrace();
+            }
+            socket = null;
+        }
+    }
+
+    /**
+     * Read a reply, which ends with an empty line
+     *
+     * @return the lines of the reply separated by dots
+     * @throws IOException if the connection was closed
+     */
+    private String readReply() throws IOException {
+        return readReply(in);
+    }
+
+    /**
+     * Read a reply, which ends with an empty line
+     *
+     * @param in the connection to read from
+     * @return the lines of the reply separated by dots
+     * @throws IOException if the connection was closed
+     */
+    static String readReply(BufferedReader in) throws IOException {
+        StringBuilder resp = new StringBuilder();
+        String line = in.readLine();
+        if (line == null) throw new EOFException("Connection closed by server");
+        while (line != null && line.length() != 0) {
+            resp.append(line).append(".");
+            line = in.readLine();
+        }
+        return resp.toString();
+    }
+
+    /**
+     * Format a text reply the same way {@link SocketBot#readReply()} does
+     *
+     * @param reply a text reply
+     * @return the lines of the reply up to the first empty one, separated by dots
+     */
+    private static String dotted(String reply) {
+        StringBuilder resp = new StringBuilder();
+        for (String line : reply.split("\r?\n")) {
+            if (line.length() == 0) break;
+            resp.append(line).append(".");
+        }
+        return resp.toString();
+    }
+
+    private int sendRequest(String req) throws IOException {
+        try {
+//            System.err.println(host + " " + port + 1);
+            if (pool != null) return processReply(pool.request(req)[0]);
+            if (socket == null) connect();
+            if (binary) {
+                BinaryProtocol.writeText(binOut, BinaryProtocol.TEXT, 0, req);
+                binOut.flush();
+                return processReply(dotted(BinaryProtocol.readText(binIn)));
+            }
+            out.print(req + "\r\n");
+            out.flush();
+//                    System.err.println("Response received :" + resp);
+            return processReply(readReply());
         } catch (Exception e) {
             System.err.format("SocketBot unable to connect to server %s on port %d", host, port);
             running = false;
+            disconnect();
 //            System.exit(0);
-        } finally {
-            out.close();
-            in.close();
-            socket.close();
         }
         return -1;
     }
 
+    /**
+     * Send several tagged requests in a single write and process their replies
+     *
+     * @param reqs the requests to send
+     * @return the result of processing each reply, in the order of the requests
+     * @throws IOException if socket communication fails
+     */
+    private int[] sendPipelined(String... reqs) throws IOException {
+        int[] res = new int[reqs.length];
+        try {
+            if (pool != null) {
+                String[] replies = pool.request(reqs);
+                for (int i = 0; i < reqs.length; i++) {
+                    res[i] = processReply(replies[i]);
+                }
+                return res;
+            }
+            if (socket == null) connect();
+            if (binary) {
+                for (int i = 0; i < reqs.length; i++) {
+                    BinaryProtocol.writeText(binOut, BinaryProtocol.TEXT, i, reqs[i]);
+                }
+                binOut.flush();
+                for (int i = 0; i < reqs.length; i++) {
+                    res[i] = processReply(dotted(BinaryProtocol.readText(binIn)));
+                }
+                return res;
+            }
+            StringBuilder batch = new StringBuilder();
+            for (int i = 0; i < reqs.length; i++) {
+                batch.append(GameServer.TAG).append(i).append(' ').append(reqs[i]).append("\r\n");
+            }
+            out.print(batch);
+            out.flush();
+            for (int i = 0; i < reqs.length; i++) {
+                String reply = readReply();
+                int end = 1;
+                while (end < reply.length() && Character.isDigit(reply.charAt(end))) end++;
+                int tag = Integer.parseInt(reply.substring(1, end));
+                res[tag] = processReply(reply.substring(end).trim());
+            }
+        } catch (Exception e) {
+            System.err.format("SocketBot unable to connect to server %s on port %d", host, port);
+            running = false;
+            disconnect();
+            Arrays.fill(res, -1);
+        }
+        return res;
+    }
+
     public void run() {
         long start;
-        System.err.println("Trying to register " + roles[role] + " " + username);
         try {
-            if (this.primary != -1) {
-                if (sendRequest("REGISTER-" + username + "-" + role + "-0-0-" + primary + "-" + secondary + "-" + items) != 1) {
-                    System.err.println("Failed to register " + username);
-                    return;
-                }
-            } else {
-                if (sendRequest("REGISTER-" + username + "-" + role) != 1) {
-                    System.err.println("Failed to register " + username);
+            if (!registered) {
+                System.err.println("Trying to register " + roles[role] + " " + username);
+                if (this.primary != -1) {
+                    if (sendRequest("REGISTER-" + username + "-" + role + "-0-0-" + primary + "-" + secondary + "-" + items) != 1) {
+                        System.err.println("Failed to register " + username);
+                        disconnect();
+                        return;
+                    }
+                } else {
+                    if (sendRequest("REGISTER-" + username + "-" + role) != 1) {
+                        System.err.println("Failed to register " + username);
+                    }
                 }
             }
 
-            System.err.println("Created new Socket " + (role == 1 ? "attacker" : "defender") + " bot #" + counter.incrementAndGet() + ": " + username);
+            if (binary) {
+                // a bot registered in a batch has not connected yet
+                if (socket == null) connect();
+                BinaryProtocol.writeText(binOut, BinaryProtocol.INTERN, 0, username);
+                binOut.flush();
+                playerId = BinaryProtocol.readInt(binIn);
+            }
 
+            // a subscription is a connection of its own, pooled bots poll instead
+            if (pool == null) subscribe();
 
-            countDownLatch.countDown();
-            countDownLatch.await();
+            System.err.println("Created new Socket " + (role == 1 ? "attacker" : "defender") + " bot #" + counter.incrementAndGet() + ": " + username);
         } catch (IOException e) {
 //            e.printStackTrace();
             System.err.println(username + " exception 1");
             running = false;
+        } finally {
+            // the generator waits for every bot, whether it made it or not
+            countDownLatch.countDown();
+        }
+        try {
+            countDownLatch.await();
         } catch (InterruptedException e) {
             e.printStackTrace();
             return;
@@ -227,21 +528,25 @@ public class SocketBot extends Bot {
 
         while (running) {
             try {
-                if (sendRequest("GETEND") != 0) {
-                    System.err.println(username + " get end != 0");
-                    running = false;
-                    continue;
+                if (feed != null) {
+                    // nothing to do until the server sends targets
+                    readFeed(targets.isEmpty());
+                    if (!running) continue;
                 }
-                if (targets == null) {
+                if (targets.version() == 0) {
                     start = System.nanoTime();
-                    sendRequest("GETTARGETS");
-                    avgDelay += (System.nanoTime() - start);
+                    sendPipelined("GETEND", "GETDELTA-0");
+                    avgDelay += latencies.record(Latencies.TARGETS, start);
                     numOps++;
-                    if (targets == null) {
+                    if (!running) {
+                        System.err.println(username + " get end != 0");
+                        continue;
+                    }
+                    if (targets.version() == 0) {
                         System.err.println(username + " exception 2");
                         running = false;
                         continue;
-                    } else if (targets.equals("")) {
+                    } else if (targets.isEmpty()) {
                         System.err.println(username + " exception 3");
                         running = false;
                         continue;
@@ -250,11 +555,20 @@ public class SocketBot extends Bot {
                     }
                 }
                 start = System.nanoTime();
-
-                avgDelay += (System.nanoTime() - start);
-                numOps++;
-                start = System.nanoTime();
-                requestPrimary();
+                int res = requestPrimary();
+                latencies.record(role, start);
+                if (res < 0 && running) {
+                    if (feed != null) {
+                        // the target is gone, the server's next update confirms it
+                        targets.remove(targets.first());
+                    } else {
+                        // the target is gone, pick up the new targets once the server has them
+                        long update = System.nanoTime();
+                        sendPipelined("GETEND", "GETDELTA-" + targets.version());
+                        latencies.record(Latencies.TARGETS, update);
+                        if (targets.isEmpty()) running = false;
+                    }
+                }
 //                if (requestPrimary() < 0) {
 //                    running = false;
 //                    break;
@@ -272,6 +586,7 @@ public class SocketBot extends Bot {
 //                e.printStackTrace();
                 System.err.println(username + " exception 4");
                 running = false;
+                disconnect();
                 if (numOps != 0) {
                     avgDelay /= numOps;
                     addStats();
@@ -281,6 +596,7 @@ public class SocketBot extends Bot {
                 }
             }
         }
+        disconnect();
         if (numOps != 0) {
             avgDelay /= numOps;
             addStats();
@@ -1,4 +1,5 @@
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
@@ -362,6 +363,39 @@ public class SocketClient {
         }
     }
 
+    /**
+     * Open a session with the server that is kept for every following request
+     *
+     * @throws IOException if the server can not be reached or does not accept sessions
+     */
+    private void connect() throws IOException {
+        socket = new Socket(host, port);
+        out = new PrintWriter(socket.getOutputStream(), true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        out.print(GameServer.SESSION + "\r\n");
+        out.flush();
+        if (!readReply().startsWith(GameServer.SESSION)) {
+            throw new IOException("Server does not accept sessions");
+        }
+    }
+
+    /**
+     * Read a reply, which ends with an empty line
+     *
+     * @return the lines of the reply separated by dots
+     * @throws IOException if the connection was closed
+     */
+    private String readReply() throws IOException {
+        StringBuilder resp = new StringBuilder();
+        String line = in.readLine();
+        if (line == null) throw new EOFException("Connection closed by server");
+        while (line != null && line.length() != 0) {
+            resp.append(line + ".");
+            line = in.readLine();
+        }
+        return resp.toString();
+    }
+
     /**
      * Sends a request to the server, receives a reply and process it
      *
@@ -370,37 +404,21 @@ public class SocketClient {
      * @throws IOException if socket communication fails
      */
     private int sendRequest(String req) throws IOException {
+        String resp = null;
         try {
-
-            socket = new Socket(host, port);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            while (true) {
-                try {
-                    StringBuilder resp = new StringBuilder();
-                    String line = "";
-                    out.print(req + "\r\n");
-                    out.flush();
-                    while ((line = in.readLine()) != null && line.length() != 0) {
-                        resp.append(line + ".");
-                    }
-//                    System.err.println("Response received :" + resp);
-//                resp = processReply(in.readLine());
-                    int ret = processReply(resp.toString());
-                    return ret;
-                } catch (Exception e) {
-//                    e.printStackTrace();
-                }
-            }
-
-        } catch (Exception e) {
+            if (socket == null) connect();
+            out.print(req + "\r\n");
+            out.flush();
+            resp = readReply();
+        } catch (IOException e) {
             System.err.println("Could not connect to server, exiting");
             System.exit(0);
-        } finally {
-            out.close();
-            in.close();
-            socket.close();
+        }
+//        System.err.println("Response received :" + resp);
+        try {
+            return processReply(resp);
+        } catch (Exception e) {
+//            e.printStackTrace();
         }
         return -1;
     }
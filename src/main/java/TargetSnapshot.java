@@ -0,0 +1,67 @@
+import java.io.Serializable;
+
+/**
+ * The blocks of the current layer with their hitpoints, as last rendered by the cube
+ * <p>
+ * A snapshot never changes, a new one with a higher version replaces it when the
+ * blocks changed, so a client that passes the version it already has can be told
+ * that nothing changed without the targets being rendered or sent again.
+ * <p>
+ * A delta only holds the blocks that changed since the version a client passed,
+ * destroyed blocks are listed with 0 hitpoints, see {@link TargetView}.
+ */
+public class TargetSnapshot implements Serializable {
+    final long version;
+    final String text;
+    final boolean delta;
+    /**
+     * the versioned text protocol reply, built once for every client asking for it
+     */
+    private transient String reply;
+
+    /**
+     * Constructor
+     *
+     * @param version the version of the snapshot
+     * @param text    the blocks formatted as X_Y_Z:HP, one per line
+     * @param delta   true if the text only holds the blocks that changed
+     */
+    TargetSnapshot(long version, String text, boolean delta) {
+        this.version = version;
+        this.text = text;
+        this.delta = delta;
+    }
+
+    /**
+     * @return the version of the snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the blocks formatted as X_Y_Z:HP, one per line
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return true if the text only holds the blocks that changed
+     */
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * @return the snapshot as a TARGETS-VERSION-BLOCKS or DELTA-VERSION-BLOCKS text protocol reply
+     */
+    String reply() {
+        String r = reply;
+        if (r == null) {
+            r = (delta ? "DELTA-" : "TARGETS-") + version + "-" + text + "\r\n";
+            reply = r;
+        }
+        return r;
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * A client's copy of the targets, kept up to date by applying the
+ * deltas the server sends instead of the whole layer every time
+ */
+class TargetView {
+    private String[] blocks = new String[16];
+    private int[] hps = new int[16];
+    private int size;
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private long version;
+
+    /**
+     * @return the version of the targets held, 0 if none
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * Apply a snapshot or a delta received from the server
+     *
+     * @param version the version of the targets received
+     * @param text    the blocks formatted as X_Y_Z:HP, separated by new lines or dots
+     * @param delta   true if only the blocks that changed were received
+     */
+    void apply(long version, String text, boolean delta) {
+        if (!delta) {
+            slots.clear();
+            size = 0;
+        }
+        int start = 0;
+        while (start < text.length()) {
+            int end = start;
+            while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '.') end++;
+            int colon = text.indexOf(':', start);
+            if (colon > start && colon < end) {
+                put(text.substring(start, colon), Integer.parseInt(text.substring(colon + 1, end).trim()));
+            }
+            start = end + 1;
+        }
+        this.version = version;
+    }
+
+    /**
+     * Apply a snapshot or a delta received over rmi
+     *
+     * @param snapshot the targets received
+     */
+    void apply(TargetSnapshot snapshot) {
+        apply(snapshot.getVersion(), snapshot.getText(), snapshot.isDelta());
+    }
+
+    /**
+     * Drop a target that was destroyed
+     *
+     * @param block the block formatted as X_Y_Z
+     */
+    void remove(String block) {
+        put(block, 0);
+    }
+
+    private void put(String block, int hp) {
+        Integer slot = slots.get(block);
+        if (hp <= 0) {
+            if (slot == null) return;
+            // move the last block into the freed slot
+            int last = --size;
+            blocks[slot] = blocks[last];
+            hps[slot] = hps[last];
+            slots.put(blocks[slot], slot);
+            blocks[last] = null;
+            slots.remove(block);
+        } else if (slot != null) {
+            hps[slot] = hp;
+        } else {
+            if (size == blocks.length) {
+                blocks = Arrays.copyOf(blocks, size * 2);
+                hps = Arrays.copyOf(hps, size * 2);
+            }
+            blocks[size] = block;
+            hps[size] = hp;
+            slots.put(block, size++);
+        }
+    }
+
+    /**
+     * @return true if there are no targets
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the first target, or null if there is none
+     */
+    String first() {
+        return size == 0 ? null : blocks[0];
+    }
+
+    /**
+     * @param rand the random generator to use
+     * @return a random target, or null if there is none
+     */
+    String random(Random rand) {
+        return size == 0 ? null : blocks[rand.nextInt(size)];
+    }
+
+    /**
+     * @return a copy of the targets formatted as X_Y_Z
+     */
+    String[] blocks() {
+        return Arrays.copyOf(blocks, size);
+    }
+
+    /**
+     * @return the targets formatted as X_Y_Z:HP, one per line
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            s.append(blocks[i]).append(":").append(hps[i]).append("\n");
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,124 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Changes written to an {@link ActionLog} and replayed from the position a snapshot recorded
+ */
+public class ActionLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalState state;
+    private ActionLog log;
+    private Path logFile;
+    private Path snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        logFile = folder.getRoot().toPath().resolve("game.log");
+        snapshot = folder.getRoot().toPath().resolve("game.bin");
+        state = game();
+        log = ActionLog.create(logFile, 42);
+        state.setLog(log);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        state.setLog((ActionLog) null);
+        log.close();
+    }
+
+    /**
+     * @return a game with an attacker and a defender
+     */
+    private static LocalState game() throws Exception {
+        LocalState game = new LocalState("logged", new Cube(5, 100, false), 300_000_000_000L);
+        game.parseRequest("REGISTER-a-1-10-20-3-2");
+        game.parseRequest("REGISTER-d-0-30-40-4-1");
+        return game;
+    }
+
+    @Test
+    public void snapshotLoadsWithTheChangesLoggedAfterIt() throws Exception {
+        Cube cube = state.cube();
+        Player a = state.getPlayer("a");
+        Player d = state.getPlayer("d");
+        GameSnapshotTest.block(cube, 1, 0).attack(30);
+        a.gainCredits(5);
+        GameSnapshot.save(state, snapshot);
+
+        assertEquals("REGISTER-1-late-1", state.parseRequest("REGISTER-late-1-1-2-1-1"));
+        GameSnapshotTest.block(cube, 1, 0).attack(20);
+        GameSnapshotTest.block(cube, 1, 1).repair(5);
+        GameSnapshotTest.block(cube, 1, 2).attack(100);
+        GameSnapshotTest.block(cube, 2, 3).shield(d, 7);
+        GameSnapshotTest.block(cube, 2, 3).attack(3);
+        a.gainCredits(11);
+        a.removeCredits(4);
+        a.setStats(new int[]{5, 4, 3, 2, 1});
+        a.logStats();
+        state.getPlayer("late").gainCredits(2);
+        log.flush();
+
+        GameSnapshotTest.assertSameGame(state, GameSnapshot.load(snapshot, logFile));
+        assertNull(GameSnapshot.load(snapshot).getPlayer("late"));
+    }
+
+    @Test
+    public void replayStartsAtTheRecordedPosition() throws Exception {
+        Cube cube = state.cube();
+        GameBlock before = GameSnapshotTest.block(cube, 1, 0);
+        GameBlock after = GameSnapshotTest.block(cube, 1, 1);
+        before.attack(10);
+        state.getPlayer("a").gainCredits(10);
+        long from = log.position();
+        after.attack(30);
+        state.getPlayer("a").gainCredits(7);
+        log.flush();
+
+        LocalState replayed = game();
+        assertEquals(2, ActionLog.replay(logFile, 42, from, replayed));
+        assertEquals(100, replayed.cube().getBlock(before.id()).getHp());
+        assertEquals(70, replayed.cube().getBlock(after.id()).getHp());
+        assertEquals(17, replayed.getPlayer("a").getScore());
+        assertEquals(27, replayed.getPlayer("a").getCredits());
+
+        assertEquals(0, ActionLog.replay(logFile, 42, log.position(), game()));
+    }
+
+    @Test
+    public void otherLogsAreNotReplayed() throws Exception {
+        state.getPlayer("a").gainCredits(7);
+        log.flush();
+        assertEquals(42, ActionLog.id(logFile));
+        assertEquals(-1, ActionLog.replay(logFile, 41, ActionLog.HEADER, game()));
+        assertEquals(-1, ActionLog.replay(folder.getRoot().toPath().resolve("missing.log"), 42,
+                ActionLog.HEADER, game()));
+    }
+
+    @Test
+    public void recordCutShortIsIgnored() throws Exception {
+        long from = log.position();
+        state.getPlayer("a").gainCredits(7);
+        log.flush();
+        // the start of a record the crash did not let the log finish
+        try (FileChannel ch = FileChannel.open(logFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ch.write(ByteBuffer.wrap(new byte[]{0, 20, ActionLog.CREDITS, 0, 0}));
+        }
+
+        LocalState replayed = game();
+        assertEquals(1, ActionLog.replay(logFile, 42, from, replayed));
+        assertEquals(17, replayed.getPlayer("a").getScore());
+    }
+}
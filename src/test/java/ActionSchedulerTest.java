@@ -0,0 +1,147 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The timer wheel of {@link ActionScheduler}
+ */
+public class ActionSchedulerTest {
+    private static final long MS = 1_000_000L;
+
+    private ActionScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ActionScheduler();
+        scheduler.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+        scheduler.join(1000);
+    }
+
+    /**
+     * Wait until the wheel's thread is in a state
+     */
+    private void awaitState(Thread.State state) throws Exception {
+        long end = System.nanoTime() + 1000 * MS;
+        while (scheduler.getState() != state) {
+            assertTrue("scheduler stuck in " + scheduler.getState(), System.nanoTime() < end);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void timersRunInDeadlineOrder() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(4);
+        long now = System.nanoTime();
+        String[] names = {"c", "a", "b", "a2"};
+        long[] delays = {30, 10, 20, 10};
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            scheduler.schedule(now + delays[i] * MS, () -> {
+                order.add(name);
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        // timers of the same tick run in the order they were added
+        assertEquals(Arrays.asList("a", "a2", "b", "c"), order);
+    }
+
+    @Test
+    public void timersNeverRunEarly() throws Exception {
+        int count = 50;
+        long[] at = new long[count];
+        long[] ran = new long[count];
+        CountDownLatch done = new CountDownLatch(count);
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            int n = i;
+            at[i] = now + (i * 7 % 40) * MS + i * 1000;
+            scheduler.schedule(at[i], () -> {
+                ran[n] = System.nanoTime();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            assertTrue(ran[i] >= at[i]);
+        }
+    }
+
+    @Test
+    public void passedDeadlinesRunAtOnce() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.schedule(System.nanoTime() - 500 * MS, done::countDown);
+        assertTrue(done.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void timerDueAfterATurnOfTheWheelWaitsForIt() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        long[] ran = new long[1];
+        // more than the 1024 slots of a turn away, it shares a slot with an earlier tick
+        long at = System.nanoTime() + 1100 * MS;
+        scheduler.schedule(at, () -> {
+            ran[0] = System.nanoTime();
+            done.countDown();
+        });
+        assertTrue(done.await(3, TimeUnit.SECONDS));
+        assertTrue(ran[0] >= at);
+    }
+
+    @Test
+    public void idleWheelParksUntilATimerIsAdded() throws Exception {
+        awaitState(Thread.State.WAITING);
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.schedule(System.nanoTime() + 5 * MS, done::countDown);
+        assertTrue(done.await(500, TimeUnit.MILLISECONDS));
+        awaitState(Thread.State.WAITING);
+    }
+
+    @Test
+    public void sleepingWheelWakesForAnEarlierTimer() throws Exception {
+        CountDownLatch late = new CountDownLatch(1);
+        scheduler.schedule(System.nanoTime() + 2000 * MS, late::countDown);
+        awaitState(Thread.State.TIMED_WAITING);
+        CountDownLatch early = new CountDownLatch(1);
+        long start = System.nanoTime();
+        scheduler.schedule(start + 5 * MS, early::countDown);
+        assertTrue(early.await(500, TimeUnit.MILLISECONDS));
+        assertEquals(1, late.getCount());
+    }
+
+    @Test
+    public void failingTaskDoesNotStopTheWheel() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        long now = System.nanoTime();
+        scheduler.schedule(now, () -> {
+            throw new IllegalStateException("expected by the test");
+        });
+        scheduler.schedule(now + MS, done::countDown);
+        assertTrue(done.await(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shutdownStopsTheThread() throws Exception {
+        scheduler.schedule(System.nanoTime() + 1000 * MS, () -> {
+        });
+        scheduler.shutdown();
+        scheduler.join(1000);
+        assertEquals(Thread.State.TERMINATED, scheduler.getState());
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The ring of block changes the target deltas are read from, see {@link ChangeLog}
+ */
+public class ChangeLogTest {
+
+    @Test
+    public void capacityIsAPowerOfTwo() {
+        assertEquals(1024, new ChangeLog(1000).capacity());
+        assertEquals(1024, new ChangeLog(1024).capacity());
+        assertEquals(2048, new ChangeLog(1025).capacity());
+    }
+
+    @Test
+    public void sequenceNumbersStartAtOne() {
+        ChangeLog log = new ChangeLog(8);
+        assertEquals(1, log.head());
+        assertEquals(1, log.append(42));
+        assertEquals(2, log.append(43));
+        assertEquals(3, log.head());
+    }
+
+    @Test
+    public void readCopiesChangesInOrder() {
+        ChangeLog log = new ChangeLog(8);
+        for (int id = 10; id < 15; id++) {
+            log.append(id);
+        }
+        int[] out = new int[5];
+        assertEquals(5, log.read(1, 6, out));
+        assertArrayEquals(new int[]{10, 11, 12, 13, 14}, out);
+        out = new int[2];
+        assertEquals(2, log.read(3, 5, out));
+        assertArrayEquals(new int[]{12, 13}, out);
+    }
+
+    @Test
+    public void readStopsAtChangesNotWrittenYet() {
+        ChangeLog log = new ChangeLog(8);
+        log.append(7);
+        int[] out = new int[4];
+        assertEquals(1, log.read(1, 5, out));
+        assertEquals(7, out[0]);
+        assertEquals(0, log.read(2, 4, out));
+    }
+
+    @Test
+    public void overwrittenChangesAskForAResync() {
+        ChangeLog log = new ChangeLog(4);
+        for (int id = 0; id < 10; id++) {
+            log.append(id);
+        }
+        int[] out = new int[10];
+        // more than the ring holds
+        assertEquals(-1, log.read(1, 11, out));
+        // within its size, but partly overwritten since
+        assertEquals(-1, log.read(5, 9, out));
+        assertEquals(4, log.read(7, 11, out));
+        assertArrayEquals(new int[]{6, 7, 8, 9}, Arrays.copyOf(out, 4));
+    }
+}
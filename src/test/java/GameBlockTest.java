@@ -0,0 +1,163 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The packed hitpoint, shield and generation word of {@link GameBlock}
+ */
+public class GameBlockTest {
+    private GameBlock block;
+    private Defender first;
+    private Defender second;
+
+    @Before
+    public void setUp() throws Exception {
+        block = new GameBlock(1, 0, 0, 100);
+        first = new Defender("first", 0, 0);
+        second = new Defender("second", 0, 0);
+    }
+
+    @Test
+    public void startsWithFullHpAndNoShield() throws Exception {
+        assertEquals(100, block.getHp());
+        assertEquals(0, block.shieldPoints());
+        assertNull(block.shielder());
+    }
+
+    @Test
+    public void attackTakesHpUntilDestroyed() throws Exception {
+        assertEquals(30, block.attack(30));
+        assertEquals(70, block.getHp());
+        assertEquals(70, block.attack(500));
+        assertEquals(0, block.getHp());
+        assertEquals(0, block.attack(10));
+        assertEquals(0, block.repair(10));
+    }
+
+    @Test
+    public void repairStopsAtMaxHp() throws Exception {
+        assertEquals(0, block.repair(10));
+        block.attack(25);
+        assertEquals(10, block.repair(10));
+        assertEquals(15, block.repair(50));
+        assertEquals(100, block.getHp());
+    }
+
+    @Test
+    public void shieldAbsorbsDamageAndCreditsShielder() throws Exception {
+        assertEquals(40, block.shield(first, 40));
+        assertSame(first, block.shielder());
+        assertEquals(-1, block.shield(second, 10));
+
+        assertEquals(0, block.attack(25));
+        assertEquals(100, block.getHp());
+        assertEquals(15, block.shieldPoints());
+        assertEquals(25, first.getCredits());
+
+        // the rest of the shield goes first, the hitpoints take the remainder
+        assertEquals(5, block.attack(20));
+        assertEquals(95, block.getHp());
+        assertEquals(0, block.shieldPoints());
+        assertNull(block.shielder());
+        assertEquals(40, first.getCredits());
+
+        assertEquals(10, block.shield(second, 10));
+        assertSame(second, block.shielder());
+    }
+
+    @Test
+    public void shieldPointsAreBounded() throws Exception {
+        assertEquals(-1, block.shield(first, 0));
+        assertEquals(-1, block.shield(first, -5));
+        assertEquals(GameBlock.MAX_SHIELD, block.shield(first, Integer.MAX_VALUE));
+        assertEquals(GameBlock.MAX_SHIELD, block.shieldPoints());
+        assertEquals(100, block.getHp());
+    }
+
+    @Test
+    public void hpDoesNotSpillIntoShield() throws Exception {
+        GameBlock big = new GameBlock(1, 0, 0, Integer.MAX_VALUE);
+        assertEquals(7, big.shield(first, 7));
+        assertEquals(Integer.MAX_VALUE, big.getHp());
+        assertEquals(7, big.shieldPoints());
+        assertEquals(3, big.attack(10));
+        assertEquals(Integer.MAX_VALUE - 3, big.getHp());
+        assertEquals(0, big.shieldPoints());
+    }
+
+    @Test
+    public void shieldGenerationRollsOver() throws Exception {
+        // more shields than the generation bits can count
+        for (int i = 0; i < 10_000; i++) {
+            Defender shielder = i % 2 == 0 ? first : second;
+            assertEquals(3, block.shield(shielder, 3));
+            assertSame(shielder, block.shielder());
+            assertEquals(0, block.attack(3));
+            assertNull(block.shielder());
+        }
+        assertEquals(100, block.getHp());
+        assertEquals(15_000, first.getCredits());
+        assertEquals(15_000, second.getCredits());
+    }
+
+    @Test
+    public void restoreReplacesTheShield() throws Exception {
+        block.shield(first, 20);
+        block.restore(60, 5, second);
+        assertEquals(60, block.getHp());
+        assertEquals(5, block.shieldPoints());
+        assertSame(second, block.shielder());
+
+        block.restore(60, -3, first);
+        assertEquals(0, block.shieldPoints());
+        assertNull(block.shielder());
+        assertEquals(8, block.shield(first, 8));
+
+        block.restore(60, Integer.MAX_VALUE, null);
+        assertEquals(GameBlock.MAX_SHIELD, block.shieldPoints());
+    }
+
+    @Test
+    public void snapshotWithoutEpochReadsCurrentState() throws Exception {
+        block.shield(first, 12);
+        block.attack(30);
+        int[] hp = new int[1];
+        int[] points = new int[1];
+        assertNull(block.snapshot(1, 0, hp, points));
+        assertEquals(82, hp[0]);
+        assertEquals(0, points[0]);
+    }
+
+    @Test
+    public void concurrentAttacksAddUp() throws Exception {
+        GameBlock shared = new GameBlock(1, 0, 0, 1_000_000);
+        AtomicInteger dealt = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            Defender shielder = t % 2 == 0 ? first : second;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50_000; i++) {
+                        shared.shield(shielder, 2);
+                        dealt.addAndGet(shared.attack(3));
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1_000_000 - dealt.get(), shared.getHp());
+        // every point of damage went either to the hitpoints or to a shielder
+        int absorbed = first.getCredits() + second.getCredits();
+        assertEquals(threads.length * 50_000 * 3, dealt.get() + absorbed);
+    }
+}
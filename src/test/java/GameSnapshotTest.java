@@ -0,0 +1,202 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Games saved to a binary file by {@link GameSnapshot} and loaded back
+ */
+public class GameSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalState state;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        state = new LocalState("saved", new Cube(5, 100, false), 300_000_000_000L);
+        assertEquals("REGISTER-1-a-1", state.parseRequest("REGISTER-a-1-10-20-3-2"));
+        assertEquals("REGISTER-1-d-0", state.parseRequest("REGISTER-d-0-30-40-4-1"));
+        file = folder.getRoot().toPath().resolve("game.bin");
+    }
+
+    @Test
+    public void savedGameLoadsBack() throws Exception {
+        Cube cube = state.cube();
+        Player d = state.getPlayer("d");
+        GameBlock hit = block(cube, 1, 0);
+        GameBlock destroyed = block(cube, 1, 10);
+        GameBlock shielded = block(cube, 2, 3);
+        hit.attack(30);
+        destroyed.attack(100);
+        shielded.shield(d, 7);
+        state.getPlayer("a").gainCredits(5);
+
+        GameSnapshot.save(state, file);
+        assertTrue(GameSnapshot.isSnapshot(file));
+        LocalState loaded = GameSnapshot.load(file);
+
+        assertEquals("saved", loaded.name);
+        assertTrue(loaded.timeLeft() > 0 && loaded.timeLeft() <= state.timeLeft() + 1_000_000_000L);
+        assertSameGame(state, loaded);
+        Cube other = loaded.cube();
+        assertEquals(70, other.getBlock(hit.id()).getHp());
+        assertEquals(0, other.getBlock(destroyed.id()).getHp());
+        assertEquals(loaded.getPlayer("d"), other.getBlock(shielded.id()).shielder());
+        assertNull(other.getBlock(hit.id()).shielder());
+    }
+
+    @Test
+    public void snapshotSeesOneMomentWhilePlayersPlay() throws Exception {
+        Cube cube = state.cube();
+        Player a = state.getPlayer("a");
+        Player d = state.getPlayer("d");
+        int attacked = a.getScore();
+        int repaired = d.getScore();
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread[] players = new Thread[4];
+        for (int t = 0; t < players.length; t++) {
+            int first = t;
+            players[t] = new Thread(() -> {
+                GameBlock[] blocks = cube.level(1);
+                for (int i = first; !stop.get(); i++) {
+                    GameBlock b = blocks[i % blocks.length];
+                    if (b == null) continue;
+                    // the score gained for an action goes with the hitpoints it changed
+                    act(cube, () -> a.gainCredits(b.attack(1)));
+                    act(cube, () -> d.gainCredits(b.repair(1)));
+                }
+            });
+            players[t].start();
+        }
+        try {
+            for (int n = 0; n < 20; n++) {
+                GameSnapshot.save(state, file);
+                LocalState loaded = GameSnapshot.load(file);
+                int[] damage = new int[1];
+                loaded.cube().forEachBlock(b -> damage[0] += 100 - hp(b));
+                int score = loaded.getPlayer("a").getScore() - attacked - (loaded.getPlayer("d").getScore() - repaired);
+                assertEquals(damage[0], score);
+            }
+        } finally {
+            stop.set(true);
+            for (Thread t : players) {
+                t.join();
+            }
+        }
+        assertTrue(a.getScore() > attacked && d.getScore() > repaired);
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run an action the way {@link LocalState} does, inside the epoch of the cube
+     */
+    private static void act(Cube cube, Action action) {
+        int stripe = cube.epoch.enter();
+        try {
+            action.run();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            cube.epoch.exit(stripe);
+        }
+    }
+
+    private static int hp(GameBlock b) {
+        try {
+            return b.getHp();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Check that a loaded game holds the same players and blocks as the one it was saved from
+     */
+    static void assertSameGame(LocalState expected, LocalState actual) throws Exception {
+        assertEquals(expected.players().size(), actual.players().size());
+        for (Player p : expected.players()) {
+            Player q = actual.getPlayer(p.unameToString());
+            assertEquals(p.getRole(), q.getRole());
+            assertEquals(p.getScore(), q.getScore());
+            assertEquals(p.getCredits(), q.getCredits());
+            assertArrayEquals(p.stats(), q.stats());
+        }
+
+        Cube cube = expected.cube();
+        Cube other = actual.cube();
+        assertEquals(cube.side(), other.side());
+        assertEquals(cube.blockHp(), other.blockHp());
+        for (int level = 1; level <= cube.levels(); level++) {
+            GameBlock[] blocks = cube.level(level);
+            GameBlock[] copies = other.level(level);
+            for (int i = 0; i < blocks.length; i++) {
+                if (blocks[i] == null) {
+                    assertNull(copies[i]);
+                    continue;
+                }
+                assertEquals(blocks[i].getHp(), copies[i].getHp());
+                assertEquals(blocks[i].shieldPoints(), copies[i].shieldPoints());
+                Player shielder = blocks[i].shielder();
+                if (shielder == null) {
+                    assertNull(copies[i].shielder());
+                } else {
+                    assertEquals(shielder.unameToString(), copies[i].shielder().unameToString());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the n-th block of a level of the cube
+     */
+    static GameBlock block(Cube cube, int level, int n) {
+        for (GameBlock b : cube.level(level)) {
+            if (b != null && n-- == 0) return b;
+        }
+        throw new IllegalArgumentException("No block " + n + " on level " + level);
+    }
+
+    @Test
+    public void otherFilesAreRefused() throws Exception {
+        Files.write(file, "not a game".getBytes());
+        assertFalse(GameSnapshot.isSnapshot(file));
+        try {
+            GameSnapshot.load(file);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not a saved game"));
+        }
+    }
+
+    @Test
+    public void truncatedFilesAreRefused() throws Exception {
+        GameSnapshot.save(state, file);
+        byte[] saved = Files.readAllBytes(file);
+        byte[] cut = new byte[saved.length / 2];
+        System.arraycopy(saved, 0, cut, 0, cut.length);
+        Files.write(file, cut);
+        try {
+            GameSnapshot.load(file);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Corrupt saved game"));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The buckets and percentiles of {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest {
+    /**
+     * far above the values under test, so that the median is the top of a bucket rather than the max
+     */
+    private static final long FAR = 60_000_000_000L;
+
+    /**
+     * @param value a latency
+     * @return the highest latency counted in the same bucket as it
+     */
+    private static long bucketTop(long value) {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(value);
+        h.record(FAR);
+        return h.percentile(50);
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.count());
+        assertEquals(0, h.mean());
+        assertEquals(0, h.max());
+        assertEquals(0, h.percentile(99));
+    }
+
+    @Test
+    public void bucketsAreExactBelow256() {
+        for (long v = 0; v < 256; v++) {
+            assertEquals(v, bucketTop(v));
+        }
+    }
+
+    @Test
+    public void bucketsAreLessThanOnePercentWide() {
+        Random rand = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            long v = 256 + (long) Math.pow(2, rand.nextDouble() * 34);
+            long top = bucketTop(v);
+            assertTrue(v + " counted up to " + top, top >= v && top - v < v / 100.0);
+            // the top of a bucket is counted in it and the next value in the next one
+            assertEquals(top, bucketTop(top));
+            assertTrue(bucketTop(top + 1) > top);
+        }
+    }
+
+    @Test
+    public void percentilesOfExactValues() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 100; v >= 1; v--) {
+            h.record(v);
+        }
+        assertEquals(100, h.count());
+        assertEquals(50, h.mean());
+        assertEquals(1, h.percentile(0));
+        assertEquals(50, h.percentile(50));
+        assertEquals(90, h.percentile(90));
+        assertEquals(99, h.percentile(99));
+        assertEquals(100, h.percentile(99.9));
+        assertEquals(100, h.percentile(100));
+    }
+
+    @Test
+    public void percentileNeverExceedsMax() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(1_000_001);
+        assertEquals(1_000_001, h.percentile(50));
+        assertEquals(1_000_001, h.max());
+    }
+
+    @Test
+    public void outOfRangeLatenciesAreClamped() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        assertEquals(0, h.percentile(100));
+        h.record(1L << 40);
+        assertEquals(1L << 40, h.max());
+        // over a minute goes in the last bucket
+        assertEquals((1L << 36) - 1, h.percentile(100));
+    }
+
+    @Test
+    public void addedHistogramsMatchOneRecordingEverything() {
+        Random rand = new Random(2);
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        for (int i = 0; i < 10_000; i++) {
+            long v = (long) (rand.nextDouble() * 50_000_000);
+            all.record(v);
+            (i % 3 == 0 ? a : b).record(v);
+        }
+        a.add(b);
+        assertEquals(all.count(), a.count());
+        assertEquals(all.mean(), a.mean());
+        assertEquals(all.max(), a.max());
+        for (double p : new double[]{0, 50, 90, 99, 99.9, 100}) {
+            assertEquals(all.percentile(p), a.percentile(p));
+        }
+    }
+}
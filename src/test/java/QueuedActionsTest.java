@@ -0,0 +1,72 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Primary actions queued until their player's cooldown is over, see {@link LocalState#queueActions(boolean)}
+ */
+public class QueuedActionsTest {
+    private static final String ATTACK = "ATTACK-a-1_1_0";
+
+    private LocalState state;
+
+    @Before
+    public void setUp() throws Exception {
+        state = new LocalState("test", 3, 1000, 300);
+        // a speed of 4 leaves a cooldown of one second
+        assertEquals("REGISTER-1-a-1", state.parseRequest("REGISTER-a-1-0-0-5-4"));
+        state.queueActions(true);
+    }
+
+    @After
+    public void tearDown() {
+        state.queueActions(false);
+    }
+
+    @Test
+    public void otherRequestsAreNotQueued() {
+        assertNull(state.parseLater("GETEND"));
+        assertNull(state.parseLater("ATTACK-a"));
+        state.queueActions(false);
+        assertNull(state.parseLater(ATTACK));
+    }
+
+    @Test
+    public void unknownPlayersAndBlocksFailAtOnce() throws Exception {
+        assertEquals("ATTACK-(-1)-nobody", state.parseLater("ATTACK-nobody-1_1_0").getNow(null));
+        // in cooldown, but the block does not exist
+        state.parseLater(ATTACK).join();
+        assertEquals("ATTACK-(-1)-a", state.parseLater("ATTACK-a-9_9_9").getNow(null));
+    }
+
+    @Test
+    public void actionsRunInOrderOncePerCooldown() throws Exception {
+        CompletableFuture<String> first = state.parseLater(ATTACK);
+        assertEquals("ATTACK-(5)-a", first.getNow(null));
+
+        ArrayList<CompletableFuture<String>> waiting = new ArrayList<>();
+        for (int i = 0; i < LocalState.MAX_WAITING; i++) {
+            waiting.add(state.parseLater(ATTACK));
+        }
+        // the queue is full, the next one is turned away as if nothing was queued
+        assertEquals("ATTACK-(0)-a", state.parseLater(ATTACK).getNow(null));
+        for (CompletableFuture<String> f : waiting) {
+            assertFalse(f.isDone());
+        }
+
+        long start = System.nanoTime();
+        assertEquals("ATTACK-(5)-a", waiting.get(0).join());
+        assertTrue(System.nanoTime() - start > 900_000_000L);
+        for (CompletableFuture<String> f : waiting.subList(1, waiting.size())) {
+            assertFalse(f.isDone());
+        }
+    }
+}
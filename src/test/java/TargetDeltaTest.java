@@ -0,0 +1,102 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Deltas of the targets from {@link Cube#delta(long)} applied to a client's {@link TargetView}
+ */
+public class TargetDeltaTest {
+    private Cube cube;
+    private TargetSnapshot full;
+    private TargetView view;
+    private GameBlock block;
+
+    @Before
+    public void setUp() {
+        // a layer of 26 blocks around a single one
+        cube = new Cube(3, 100);
+        full = cube.targets();
+        view = new TargetView();
+        view.apply(full);
+        block = cube.getBlock(full.text.substring(0, full.text.indexOf(':')));
+    }
+
+    /**
+     * @return the number of blocks held by the view
+     */
+    private int size() {
+        return view.isEmpty() ? 0 : view.toString().split("\n").length;
+    }
+
+    @Test
+    public void fullTargetsHoldTheLayer() {
+        assertFalse(full.isDelta());
+        assertEquals(26, size());
+        assertTrue(view.toString().contains(block + ":100\n"));
+    }
+
+    @Test
+    public void deltaHoldsOnlyTheChangedBlocks() throws Exception {
+        block.attack(30);
+        TargetSnapshot delta = cube.delta(full.version);
+        assertTrue(delta.isDelta());
+        assertEquals(full.version + 1, delta.version);
+        assertEquals(block + ":70\n", delta.text);
+
+        view.apply(delta);
+        assertEquals(delta.version, view.version());
+        assertEquals(26, size());
+        assertTrue(view.toString().contains(block + ":70\n"));
+
+        TargetSnapshot unchanged = cube.delta(delta.version);
+        assertTrue(unchanged.isDelta());
+        assertEquals(delta.version, unchanged.version);
+        assertEquals("", unchanged.text);
+    }
+
+    @Test
+    public void blockChangedTwiceIsSentOnce() throws Exception {
+        block.attack(10);
+        block.attack(10);
+        block.repair(5);
+        TargetSnapshot delta = cube.delta(full.version);
+        assertEquals(full.version + 3, delta.version);
+        assertEquals(block + ":85\n", delta.text);
+    }
+
+    @Test
+    public void destroyedBlocksLeaveTheView() throws Exception {
+        block.attack(100);
+        TargetSnapshot delta = cube.delta(full.version);
+        assertEquals(block + ":0\n", delta.text);
+        view.apply(delta);
+        assertEquals(25, size());
+        assertFalse(view.toString().contains(block + ":"));
+    }
+
+    @Test
+    public void manyChangesResyncWithTheWholeLayer() throws Exception {
+        // more changes than blocks alive, the whole layer is cheaper
+        for (int i = 0; i < 30; i++) {
+            block.attack(1);
+        }
+        assertFalse(cube.delta(full.version).isDelta());
+    }
+
+    @Test
+    public void newLayerResyncsWithTheWholeLayer() throws Exception {
+        for (String line : full.text.split("\n")) {
+            cube.getBlock(line.substring(0, line.indexOf(':'))).attack(100);
+        }
+        assertTrue(cube.isAlive());
+        TargetSnapshot next = cube.delta(full.version);
+        assertFalse(next.isDelta());
+        view.apply(next);
+        assertEquals(1, size());
+        assertEquals(next.text, view.toString());
+        assertFalse(view.toString().contains(block + ":"));
+    }
+}